@@ -91,7 +91,8 @@ $ENDTABLE;
 
 CREATE TABLE BurlRepoStores (
    name text NOT NULL PRIMARY KEY,
-   fields text
+   fields text,
+   fold_version int NOT NULL DEFAULT 0
 $ENDTABLE;
 
 
@@ -13,6 +13,8 @@ $runcmd
 ALTER TABLE burlrepo_aitywpomcdqj ADD COLUMN lccsort text;
 ALTER TABLE burlrepo_hbhulrcyfrmw ADD COLUMN lccsort text;
 
+ALTER TABLE BurlRepoStores ADD COLUMN IF NOT EXISTS fold_version int NOT NULL DEFAULT 0;
+
 
 
 EOF
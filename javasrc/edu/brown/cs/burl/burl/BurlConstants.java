@@ -19,6 +19,7 @@
 package edu.brown.cs.burl.burl;
 
 import java.util.Iterator;
+import java.util.List;
 
 public interface BurlConstants {
 
@@ -35,7 +36,6 @@ int     SALT_LENGTH = 16;
 int     PASSWORD_LENGTH = 12;
 int     SESSION_CODE_LENGTH = 32;
 int     NAME_KEY_LENGTH = 12;
-int     NEW_ROW_MARKER_LENGTH = 24;
 
 
 
@@ -158,6 +158,18 @@ interface BurlCountIter<T> extends Iterator<T> {
 
    int getRowCount();
    int getIndex();
+   
+   /**
+    *    Release any resources (e.g. result sets) held by the iterator
+    **/
+   
+   default void close()                 { }
+   
+   /**
+    *    Tell if getRowCount is exact rather than an estimate
+    **/
+   
+   default boolean isCountExact()       { return true; }
 
 }       // end of interface BurlCountIter
 
@@ -175,6 +187,37 @@ interface BurlRowIter extends BurlCountIter<BurlRepoRow>, Iterable<BurlRepoRow>
 }       // end of interface BurlRowIter
 
 
+
+/**
+ *      A page of rows for keyset paging along with the position of the
+ *      last row, which is where the next page starts
+ **/
+
+interface BurlRowPage {
+   
+   List<BurlRepoRow> getRows();
+   String getLastSortKey();
+   Number getLastRowId();
+   int getRowCount();                   // -1 if not computed
+   
+}       // end of interface BurlRowPage
+
+
+
+/**
+ *      The stored data of a database row: its id and its values indexed
+ *      by column number (BurlRepoColumn.getNumber)
+ **/
+
+interface BurlRowData {
+   
+   Number getRowId();
+   String [] getValues();
+   String getSortKey();                 // null unless requested
+   
+}       // end of interface BurlRowData
+
+
 }	// end of interface BurlConstants
 
 
@@ -77,6 +77,13 @@ File getDataDirectory();
 BurlStorage getStorage();
 
 
+/**
+ *      Return a configuration property (null if not set)
+ **/
+
+String getProperty(String name);
+
+
 
 
 
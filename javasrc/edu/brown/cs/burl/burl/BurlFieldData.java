@@ -254,6 +254,20 @@ public BurlSortType getSortType(String nm)
 }
 
 
+public boolean isSortable(String nm)
+{
+   Element felt = field_map.get(nm);
+   return IvyXml.getAttrBool(felt,"SORT");
+}
+
+
+public boolean isIndexed(String nm)
+{
+   Element felt = field_map.get(nm);
+   return IvyXml.getAttrBool(felt,"INDEX");
+}
+
+
 public String getMultiple()                    { return multiple_string; }
 
 public String getMultiplePattern()
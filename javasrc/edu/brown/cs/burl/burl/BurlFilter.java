@@ -17,6 +17,7 @@
 
 package edu.brown.cs.burl.burl;
 
+import org.json.JSONObject;
 
 
 public interface BurlFilter extends BurlConstants
@@ -42,6 +43,17 @@ BurlRepoColumn getSortField();
 boolean invertSort();
 
 
+/**
+ *      Return the filter as field name (or "all") to match value, null if
+ *      the filter can only be evaluated with matches()
+ **/
+
+default JSONObject getFilterData()
+{
+   return null;
+}
+
+
 
 }       // end of interface BurlFilter
 
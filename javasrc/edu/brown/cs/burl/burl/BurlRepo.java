@@ -116,6 +116,15 @@ BurlRepoRow newRow();
 void setInitialValues(BurlRepoRow row,String isbn);
 
 
+/**
+ *      Add a set of new entries, each initialized for the corresponding
+ *      ISBN or LCCN (which may be null).  An entry of the result is
+ *      null if that row could not be created.
+ **/
+
+List<BurlRepoRow> newRows(List<String> isbns);
+
+
 /**
  *      Return the set of rows
  **/
@@ -140,6 +149,20 @@ BurlRowIter getRows(BurlRepoColumn sort,boolean invert);
 BurlRowIter getRows(BurlFilter filter); 
 
 
+/**
+ *      Return up to count rows matching the filter data that follow the
+ *      row with the given sort key and id (or from the start if the id is
+ *      null).  The total count is only computed for the first page.
+ *      Returns null if the repository does not support keyset paging.
+ **/
+
+default BurlRowPage getRowPage(JSONObject filter,BurlRepoColumn sort,boolean invert,
+      String afterkey,Number afterid,int count)
+{
+   return null;
+}
+
+
 /**
  *      Return the row associated with an id
  **/
@@ -189,6 +212,26 @@ void outputRepository();
 void closeRepository();
 
 
+/**
+ *      Return the time the repository was last saved, 0 if not saved here
+ **/
+
+default long getLastFlushTime()
+{
+   return 0;
+}
+
+
+/**
+ *      Return the number of edits not yet part of a saved snapshot
+ **/
+
+default int getPendingEdits()
+{
+   return 0;
+}
+
+
 /** 
  *      Export the repository
  **/
@@ -228,6 +271,21 @@ void importCSV(String csvline,BurlUpdateMode updmode,
 void importJSON(JSONObject json,BurlUpdateMode updmode);
 
 
+/**
+ *      Import a set of CSV lines at once
+ **/
+
+void importCSV(List<String> csvlines,BurlUpdateMode updmode,
+      Map<BurlRepoColumn,Integer> columns);
+
+
+/**
+ *      Import a set of json rows at once
+ **/
+
+void importJSON(List<JSONObject> rows,BurlUpdateMode updmode);
+
+
 
 /**
  *      Delete the repository
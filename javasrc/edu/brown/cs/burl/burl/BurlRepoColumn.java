@@ -169,6 +169,20 @@ String fixFieldValue(String val);
 BurlSortType getSortType();
 
 
+/**
+ *      Specify whether the field is a sort field (maintain sort order)
+ **/
+
+boolean isSortable();
+
+
+/**
+ *      Specify whether the field has a value index for filtering
+ **/
+
+boolean isIndexed();
+
+
 /**
  *      Comparison method that is needed
  **/
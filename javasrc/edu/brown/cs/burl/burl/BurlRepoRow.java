@@ -37,6 +37,17 @@ BurlRepo getRepository();
 String getData(BurlRepoColumn column);
 
 
+/**
+ *      Get the folded form of the data for a column (see
+ *      BurlUtil.foldString), for matching.  Rows may cache this.
+ **/
+
+default String getFoldedData(BurlRepoColumn column)
+{
+   return BurlUtil.foldString(getData(column));
+}
+
+
 /**
  *      Set the data for a column
  **/
@@ -58,6 +69,21 @@ default void setData(String name,String data)
 }
 
 
+/**
+ *      Start a group of changes to the row.  Changes may be held until the
+ *      matching commitEdit and then written together.  Calls may nest.
+ **/
+
+default void startEdit()                        { }
+
+
+/**
+ *      Finish a group of changes started with startEdit
+ **/
+
+default void commitEdit()                       { }
+
+
 /**
  *      Get the id for a column
  **/
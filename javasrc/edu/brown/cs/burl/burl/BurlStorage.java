@@ -19,6 +19,7 @@ package edu.brown.cs.burl.burl;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONObject;
 
@@ -183,14 +184,39 @@ List<Number> dataFieldSearch(BurlRepo repo,String field,Object value);
  *      Return a result set for iterating over data rows
  **/
 
-BurlCountIter<JSONObject> getAllDataRows(BurlRepo repo,BurlRepoColumn sort,boolean invert);
+BurlCountIter<BurlRowData> getAllDataRows(BurlRepo repo,BurlRepoColumn sort,boolean invert);
+
+
+/**
+ *      Return a result set for the data rows matching a filter given as
+ *      in BurlFilter.getFilterData
+ **/
+
+BurlCountIter<BurlRowData> getDataRows(BurlRepo repo,JSONObject filter,
+      BurlRepoColumn sort,boolean invert);
+
+
+/**
+ *      Return up to count data rows matching a filter that follow the given
+ *      sort key and id in sort order.  Each row includes its sort key.
+ **/
+
+List<BurlRowData> getDataPage(BurlRepo repo,JSONObject filter,
+      BurlRepoColumn sort,boolean invert,String afterkey,Number afterid,int count);
+
+
+/**
+ *      Return the number of data rows matching a filter
+ **/
+
+int getDataCount(BurlRepo repo,JSONObject filter);
 
 
 /**
  *      Return a particular row
  **/
 
-JSONObject getDataRow(BurlRepo repo,Number id);
+BurlRowData getDataRow(BurlRepo repo,Number id);
       
       
 /**
@@ -199,6 +225,15 @@ JSONObject getDataRow(BurlRepo repo,Number id);
 
 Number addDataRow(BurlRepo repo);
 
+
+/**
+ *      Add a set of new rows with the given initial values.  Returns the
+ *      new row ids in the same order as the value maps, or null (with no
+ *      rows added) if they could not all be added.
+ **/
+
+List<Number> addDataRows(BurlRepo repo,List<Map<String,String>> values);
+
 /**
  *      Update a particular row
  **/
@@ -206,6 +241,13 @@ Number addDataRow(BurlRepo repo);
 void updateDataRow(BurlRepo repo,Number id,String fld,String val);
 
 
+/**
+ *      Update a set of fields of a row at once
+ **/
+
+void updateDataRow(BurlRepo repo,Number id,Map<String,String> values);
+
+
 /**
  *      Remove a data row
  **/
@@ -24,9 +24,11 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
+import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.Random;
 import java.util.regex.Matcher;
@@ -52,6 +54,7 @@ private static File base_directory = null;
 private static Random rand_gen = new Random();
 private static final String RANDOM_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
 private static Pattern LCCN_PATTERN = Pattern.compile("[a-z]{0,2}[0-9]{8,10}");
+private static Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
 
 
 
@@ -174,6 +177,25 @@ public static String getAsString(JSONObject json,String key)
 }
 
 
+/**
+ *	Return a numeric property from the configuration, or the default if
+ *	the property is not set or is not a number
+ **/
+
+public static long getLongProperty(BurlControl bc,String name,long dflt)
+{
+   String v = bc.getProperty(name);
+   if (v == null || v.isBlank()) return dflt;
+   try {
+      return Long.parseLong(v.trim());
+    }
+   catch (NumberFormatException e) {
+      IvyLog.logE("BURL","Bad value for property " + name + ": " + v);
+    }
+   return dflt;
+}
+
+
 
 /********************************************************************************/
 /*										*/
@@ -392,6 +414,40 @@ public static boolean sendEmail(String sendto,String subj,String body)
 
 
 
+/********************************************************************************/
+/*										*/
+/*	Fold strings for searching and sorting					*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Return the search form of a string: Unicode NFKD with the combining
+ *	marks (diacritics) removed, then case folded.  Plain ASCII only
+ *	needs the case change.
+ **/
+
+public static String foldString(String s)
+{
+   if (s == null) return null;
+
+   boolean ascii = true;
+   for (int i = 0; i < s.length(); ++i) {
+      if (s.charAt(i) >= 128) {
+	 ascii = false;
+	 break;
+       }
+    }
+   if (ascii) return s.toLowerCase(Locale.ROOT);
+
+   String t = Normalizer.normalize(s,Normalizer.Form.NFKD);
+   t = COMBINING_MARKS.matcher(t).replaceAll("");
+   // going through upper case folds the special cases (e.g. sharp s to ss)
+   t = t.toLowerCase(Locale.ROOT).toUpperCase(Locale.ROOT);
+   return t.toLowerCase(Locale.ROOT);
+}
+
+
+
 /********************************************************************************/
 /*										*/
 /*	Tokenizer								*/
@@ -351,6 +351,8 @@ String handleRemoveUser(HttpExchange he,ControlSession session)
 {
    Number uid = session.getUserId();
    burl_store.removeUser(uid);
+   // the user's session rows are deleted with the user
+   session_store.removeUserSessions(uid);
    
    return BowerRouter.jsonOKResponse(session);
 }
@@ -35,6 +35,16 @@ String SESSION_PARAMETER = "session";
 long SESSION_TIMEOUT = 1000*60*60*24*3;
 
 
+/**
+ *	Number of sessions kept in memory, how often (ms) their last use
+ *	is written back to the database, and how many are written at once
+ **/
+
+int SESSION_CACHE_SIZE = 10000;
+long SESSION_FLUSH_TIME = 1000*60;
+int SESSION_FLUSH_BATCH = 500;
+
+
 /**
  *	Definitions for repository management
  **/
@@ -42,6 +52,91 @@ long SESSION_TIMEOUT = 1000*60*60*24*3;
 int MAX_REPOS = 10;
 
 
+/**
+ *	Maximum number of rows inserted by a single statement
+ **/
+
+int NEW_ROW_BATCH_SIZE = 500;
+
+
+/**
+ *	Maximum number of parameters in one statement (the Postgres limit)
+ **/
+
+int SQL_MAX_PARAMETERS = 32767;
+
+
+/**
+ *	Prefix marking a filterid that is a keyset paging cursor
+ **/
+
+String CURSOR_PREFIX = "K_";
+
+
+/**
+ *	Suffix for the shadow column holding the folded form of a data column
+ **/
+
+String FOLD_COLUMN_SUFFIX = "_fold";
+
+
+/**
+ *	Version of the shadow column layout recorded in BurlRepoStores; tables
+ *	with an older version are brought up to date when opened
+ **/
+
+int FOLD_VERSION = 1;
+
+
+/**
+ *	Number of rows updated by one statement when filling shadow columns
+ **/
+
+int FOLD_BATCH_SIZE = 1000;
+
+
+/**
+ *	Default bounds for saved search iterators: number of entries, estimated
+ *	bytes, and idle time (ms) before one is dropped.  Set by the
+ *	filterCacheSize, filterCacheBytes and filterCacheIdle properties.
+ **/
+
+long FILTER_CACHE_SIZE = 256;
+long FILTER_CACHE_BYTES = 64*1024*1024;
+long FILTER_CACHE_IDLE = 1000*60*10;
+long FILTER_ENTRY_BYTES = 1024;
+long FILTER_ROW_BYTES = 256;
+
+
+/**
+ *	Time (ms) after which a cached table row count is checked against
+ *	the database, and the most rows counted for a filtered listing.
+ **/
+
+long ROW_COUNT_RECONCILE = 1000*60*10;
+int ROW_COUNT_LIMIT = 10000;
+
+
+/**
+ *	Upper bounds (ms) of the buckets of timing histograms, and the
+ *	length (ms) of the window they are kept for.
+ **/
+
+long [] TIME_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+long STATS_WINDOW = 1000*60*5;
+
+
+/**
+ *	Default time (ms) above which an SQL statement is logged as slow
+ *	(property sqlSlowTime), the number of slow statements remembered, and
+ *	the number of distinct statement shapes tracked.
+ **/
+
+long SQL_SLOW_TIME = 250;
+int SQL_SLOW_LOG_SIZE = 50;
+int SQL_MAX_SHAPES = 500;
+
+
 
 }	// end of interface ControlConstants
 
@@ -0,0 +1,244 @@
+/********************************************************************************/
+/*                                                                              */
+/*              ControlDatabase.java                                            */
+/*                                                                              */
+/*      Timed access to the database pool                                       */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.control;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.brown.cs.burl.burl.BurlControl;
+import edu.brown.cs.burl.burl.BurlUtil;
+import edu.brown.cs.ivy.bower.BowerDatabasePool;
+import edu.brown.cs.ivy.file.IvyLog;
+
+/**
+ *      Wrapper for the database pool that times each statement and keeps
+ *      rolling histograms by statement shape (the SQL with library table
+ *      names, value lists and limits generalized) along with a log of
+ *      slow statements.  The pool does not report how long it waited for
+ *      a connection, so the times include any wait for the pool.
+ **/
+
+class ControlDatabase implements ControlConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private BowerDatabasePool sql_pool;
+private long slow_time;
+private long stats_window;
+private Map<String,ControlHistogram> shape_stats;
+private ControlHistogram all_stats;
+private Deque<JSONObject> slow_log;
+
+private static final Pattern REPO_TABLE = Pattern.compile("BurlRepo_\\w+");
+private static final Pattern VALUE_LIST = Pattern.compile("VALUES \\(.*\\)");
+private static final Pattern LIMIT_COUNT = Pattern.compile("LIMIT \\d+");
+private static final String OTHER_SHAPE = "other";
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+ControlDatabase(BowerDatabasePool pool,BurlControl bc)
+{
+   sql_pool = pool;
+   slow_time = BurlUtil.getLongProperty(bc,"sqlSlowTime",SQL_SLOW_TIME);
+   stats_window = BurlUtil.getLongProperty(bc,"statsWindow",STATS_WINDOW);
+   shape_stats = new ConcurrentHashMap<>();
+   all_stats = new ControlHistogram(stats_window);
+   slow_log = new ArrayDeque<>();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Database access methods                                                 */
+/*                                                                              */
+/********************************************************************************/
+
+JSONObject sqlQuery1(String q,Object... args)
+{
+   long start = System.nanoTime();
+   JSONObject rslt = null;
+   try {
+      rslt = sql_pool.sqlQuery1(q,args);
+      return rslt;
+    }
+   finally {
+      recordStatement(q,start,(rslt == null ? 0 : 1));
+    }
+}
+
+
+List<JSONObject> sqlQueryN(String q,Object... args)
+{
+   long start = System.nanoTime();
+   List<JSONObject> rslt = null;
+   try {
+      rslt = sql_pool.sqlQueryN(q,args);
+      return rslt;
+    }
+   finally {
+      recordStatement(q,start,(rslt == null ? 0 : rslt.size()));
+    }
+}
+
+
+int sqlUpdate(String q,Object... args)
+{
+   long start = System.nanoTime();
+   int rslt = -1;
+   try {
+      rslt = sql_pool.sqlUpdate(q,args);
+      return rslt;
+    }
+   finally {
+      recordStatement(q,start,rslt);
+    }
+}
+
+
+/**
+ *      Execute a query returning its result set.  Only the execution is
+ *      timed; the caller reports the rows read with recordRows.
+ **/
+
+ResultSet executeQueryStatement(String q,Object... args) throws SQLException
+{
+   long start = System.nanoTime();
+   try {
+      return sql_pool.executeQueryStatement(q,args);
+    }
+   finally {
+      recordStatement(q,start,-1);
+    }
+}
+
+
+void recordRows(String q,int rows)
+{
+   ControlHistogram h = shape_stats.get(getShape(q));
+   if (h != null) h.addRows(rows);
+   all_stats.addRows(rows);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Statistics                                                              */
+/*                                                                              */
+/********************************************************************************/
+
+private void recordStatement(String q,long start,int rows)
+{
+   long ns = System.nanoTime() - start;
+   String shape = getShape(q);
+   ControlHistogram h = shape_stats.get(shape);
+   if (h == null) {
+      if (shape_stats.size() >= SQL_MAX_SHAPES) shape = OTHER_SHAPE;
+      h = shape_stats.computeIfAbsent(shape,(s) -> new ControlHistogram(stats_window));
+    }
+   h.record(ns,rows);
+   all_stats.record(ns,rows);
+
+   long ms = ns / 1000000;
+   if (ms >= slow_time) {
+      // only the shape is logged: arguments can hold passwords
+      IvyLog.logI("BURL","Slow SQL (" + ms + "ms, " + rows + " rows): " + shape);
+      JSONObject slow = BurlUtil.buildJson("time",System.currentTimeMillis(),
+            "ms",ms,"rows",rows,"sql",shape);
+      synchronized (slow_log) {
+         slow_log.addLast(slow);
+         while (slow_log.size() > SQL_SLOW_LOG_SIZE) slow_log.removeFirst();
+       }
+    }
+}
+
+
+private static String getShape(String q)
+{
+   String s = REPO_TABLE.matcher(q).replaceAll("BurlRepo_*");
+   s = VALUE_LIST.matcher(s).replaceAll("VALUES (...)");
+   s = LIMIT_COUNT.matcher(s).replaceAll("LIMIT n");
+   return s;
+}
+
+
+JSONObject getMetrics()
+{
+   JSONObject shapes = new JSONObject();
+   for (Map.Entry<String,ControlHistogram> ent : shape_stats.entrySet()) {
+      shapes.put(ent.getKey(),ent.getValue().toJson());
+    }
+   JSONArray slow = new JSONArray();
+   synchronized (slow_log) {
+      for (JSONObject jo : slow_log) slow.put(jo);
+    }
+
+   return BurlUtil.buildJson("all",all_stats.toJson(),
+         "statements",shapes,
+         "slowTime",slow_time,
+         "slow",slow);
+}
+
+
+long getStatsWindow()
+{
+   return stats_window;
+}
+
+
+void outputPrometheus(StringBuffer buf)
+{
+   buf.append("# TYPE burl_sql_duration_seconds histogram\n");
+   all_stats.outputPrometheus(buf,"burl_sql_duration_seconds",null);
+   buf.append("# TYPE burl_sql_statement_duration_seconds histogram\n");
+   for (Map.Entry<String,ControlHistogram> ent : shape_stats.entrySet()) {
+      String lbl = "shape=\"" + ControlMetrics.escapeLabel(ent.getKey()) + "\"";
+      ent.getValue().outputPrometheus(buf,"burl_sql_statement_duration_seconds",lbl);
+    }
+}
+
+
+
+}       // end of class ControlDatabase
+
+
+
+
+/* end of ControlDatabase.java */
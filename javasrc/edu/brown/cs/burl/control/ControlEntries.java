@@ -19,7 +19,9 @@ package edu.brown.cs.burl.control;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +29,7 @@ import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.sun.net.httpserver.HttpExchange;
@@ -54,7 +57,7 @@ private ControlServer   burl_server;
 private ControlStorage  burl_store;
 private ControlMain     burl_main;
 
-private Map<String,BurlRowIter> known_filters;
+private ControlFilterCache known_filters;
 
 
 
@@ -70,7 +73,20 @@ ControlEntries(ControlMain main,ControlServer server)
    burl_main = main;
    burl_server = server;
    burl_store = burl_main.getStorage();
-   known_filters = new HashMap<>();
+   known_filters = new ControlFilterCache(main);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+JSONObject getFilterCacheMetrics()
+{
+   return known_filters.getMetrics();
 }
 
 
@@ -187,19 +203,25 @@ String handleDuplicateEntry(HttpExchange he,ControlSession session)
    if (row == null) {
       return BowerRouter.errorResponse(he,session,402,"Problem adding row");
     }
-   for (BurlRepoColumn brc : repo.getColumns()) {
-      String v = oldrow.getData(brc);
-      if (v != null) {
-         if (brc.getDefault() != null && brc.getDefault().equals("1")) {
-            try {
-               int v0 = Integer.parseInt(v);
-               v = Integer.toString(v0+1);
+   row.startEdit();
+   try {
+      for (BurlRepoColumn brc : repo.getColumns()) {
+         String v = oldrow.getData(brc);
+         if (v != null) {
+            if (brc.getDefault() != null && brc.getDefault().equals("1")) {
+               try {
+                  int v0 = Integer.parseInt(v);
+                  v = Integer.toString(v0+1);
+                }
+               catch (NumberFormatException e) { }
              }
-            catch (NumberFormatException e) { }
+            row.setData(brc,v);
           }
-         row.setData(brc,v);
        }
     }
+   finally {
+      row.commitEdit();
+    }
    
    JSONObject jobj = row.toJson();
    return BowerRouter.jsonOKResponse(session,"entry",jobj);
@@ -228,9 +250,23 @@ String handleFindEntries(HttpExchange he,ControlSession session)
    
    BurlRowIter iter = null; 
    String filterid = BowerRouter.getParameter(he,"filterid");
-   if (filterid != null) {
+   if (filterid != null && filterid.startsWith(CURSOR_PREFIX)) {
+      // keyset cursor: nothing is held on the server
+      if (count < 0) {
+         return BowerRouter.jsonOKResponse(session);
+       }
+      JSONObject cursor = decodeCursor(filterid);
+      String rslt = null;
+      if (cursor != null) rslt = handlePagedEntries(he,session,repo,cursor,count);
+      if (rslt == null) {
+         return BowerRouter.errorResponse(he,session,400,"Bad iterator");
+       }
+      return rslt;
+    }
+   else if (filterid != null) {
       iter = known_filters.remove(filterid);
       if (count < 0) {
+         if (iter != null) iter.close();
          return BowerRouter.jsonOKResponse(session);
        }
       else if (iter == null) {
@@ -242,6 +278,15 @@ String handleFindEntries(HttpExchange he,ControlSession session)
       String filterstr = BowerRouter.getParameter(he,"filter");
       String orderby = BowerRouter.getParameter(he,"orderby");
       boolean invert = BowerRouter.getBooleanParameter(he,"invert",false);
+      if (count > 0) {
+         JSONObject cursor = new JSONObject();
+         cursor.put("filter",getFilterObject(repo,filterstr));
+         cursor.put("orderby",orderby);
+         cursor.put("invert",invert);
+         cursor.put("start",0);
+         String rslt = handlePagedEntries(he,session,repo,cursor,count);
+         if (rslt != null) return rslt;
+       }
       iter = getRowIterator(repo,filterstr,orderby,invert);
       if (iter == null) {
          return BowerRouter.errorResponse(he,session,400,"Bad sort field");
@@ -255,6 +300,7 @@ String handleFindEntries(HttpExchange he,ControlSession session)
    if (filterid == null) {
       filterid = BurlUtil.randomString(12);
     }
+   boolean saved = false;
    if (count >= 0 && iter != null) {
       start = iter.getIndex();
       for (Iterator<BurlRepoRow> it = iter.iterator(); it.hasNext(); ) {
@@ -262,20 +308,94 @@ String handleFindEntries(HttpExchange he,ControlSession session)
          results.put(br.toJson());
          ++ct;
          if (count > 0 && ct == count) {
-            known_filters.put(filterid,iter); 
+            saved = true;
             break;
           }
        }
-      if (!known_filters.containsKey(filterid)) filterid = null;
+    }
+   
+   int itcnt = (iter == null ? 0 : iter.getRowCount());
+   boolean exact = (iter == null ? true : iter.isCountExact());
+   
+   if (saved) {
+      known_filters.put(filterid,iter); 
     }
    else {
+      if (iter != null) iter.close();
       filterid = null;
     }
    
-   int itcnt = (iter == null ? 0 : iter.getRowCount());
+   return BowerRouter.jsonOKResponse(session,"count",itcnt,"exact",exact,
+         "start",start,"data",results,"filterid",filterid);
+}
+
+
+
+/**
+ *      Return a page of entries using keyset paging.  The filterid returned
+ *      is an opaque cursor holding the query and the sort key and id of the
+ *      last row returned.  Returns null if the repository can't do this.
+ **/
+
+private String handlePagedEntries(HttpExchange he,ControlSession session,BurlRepo repo,
+      JSONObject cursor,int count)
+{
+   BurlRepoColumn sortfld = null;
+   String orderby = cursor.optString("orderby",null);
+   if (orderby != null && !orderby.isBlank()) {
+      sortfld = repo.getColumn(orderby);
+      if (sortfld == null) {
+         return BowerRouter.errorResponse(he,session,400,"Bad sort field");
+       }
+    }
+   JSONObject filter = cursor.optJSONObject("filter");
+   boolean invert = cursor.optBoolean("invert",false);
+   String afterkey = cursor.optString("key",null);
+   Number afterid = cursor.optNumber("id",null);
+   int start = cursor.optInt("start",0);
    
-   return BowerRouter.jsonOKResponse(session,"count",itcnt,"start",start,
-         "data",results,"filterid",filterid);
+   BurlRowPage page = repo.getRowPage(filter,sortfld,invert,afterkey,afterid,count);
+   if (page == null) return null;
+   
+   JSONArray results = new JSONArray();
+   for (BurlRepoRow br : page.getRows()) {
+      results.put(br.toJson());
+    }
+   int end = start + results.length();
+   int total = page.getRowCount();
+   if (total < 0) total = cursor.optInt("count",0);
+   if (total < end) total = end;
+   
+   String nextid = null;
+   if (results.length() == count && page.getLastRowId() != null) {
+      cursor.put("key",page.getLastSortKey());
+      cursor.put("id",page.getLastRowId());
+      cursor.put("start",end);
+      cursor.put("count",total);
+      nextid = encodeCursor(cursor);
+    }
+   
+   return BowerRouter.jsonOKResponse(session,"count",total,"exact",true,
+         "start",start,"data",results,"filterid",nextid);
+}
+
+
+private String encodeCursor(JSONObject cursor)
+{
+   byte [] bytes = cursor.toString().getBytes(StandardCharsets.UTF_8);
+   return CURSOR_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+}
+
+
+private JSONObject decodeCursor(String id)
+{
+   try {
+      byte [] bytes = Base64.getUrlDecoder().decode(id.substring(CURSOR_PREFIX.length()));
+      return new JSONObject(new String(bytes,StandardCharsets.UTF_8));
+    }
+   catch (IllegalArgumentException | JSONException e) {
+      return null;
+    }
 }
 
 
@@ -293,13 +413,7 @@ private BurlRowIter getRowIterator(BurlRepo repo,String filterstr,String orderby
    BurlRowIter iter = null; 
    
    if (filterstr != null) {
-      JSONObject jsonfilter = null;
-      if (filterstr.startsWith("{")) {
-         jsonfilter = new JSONObject(filterstr);
-       }
-      else {
-         jsonfilter = buildFilterObject(repo,filterstr);
-       }
+      JSONObject jsonfilter = getFilterObject(repo,filterstr);
       EntityFilter filter = new EntityFilter(jsonfilter,repo,sortfld,invert);
       iter = repo.getRows(filter);
     }
@@ -312,6 +426,16 @@ private BurlRowIter getRowIterator(BurlRepo repo,String filterstr,String orderby
 
 
 
+private JSONObject getFilterObject(BurlRepo repo,String filterstr)
+{
+   if (filterstr == null) return null;
+   if (filterstr.startsWith("{")) {
+      return new JSONObject(filterstr);
+    }
+   return buildFilterObject(repo,filterstr);
+}
+
+
 private JSONObject buildFilterObject(BurlRepo repo,String filterstr)
 {
    List<String> tokens = BurlUtil.tokenize(filterstr);
@@ -411,8 +535,14 @@ String handleEditEntry(HttpExchange he,ControlSession session)
       todo.put(brc,newval);
     }
   
-   for (Map.Entry<BurlRepoColumn,String> ent : todo.entrySet()) {
-      row.setData(ent.getKey(),ent.getValue());
+   row.startEdit();
+   try {
+      for (Map.Entry<BurlRepoColumn,String> ent : todo.entrySet()) {
+         row.setData(ent.getKey(),ent.getValue());
+       }
+    }
+   finally {
+      row.commitEdit();
     }
    
    return BowerRouter.jsonOKResponse(session,"entry",row.toJson());
@@ -592,12 +722,14 @@ String handleExportEntries(HttpExchange he,ControlSession session)
       f1 = File.createTempFile("Burl_" + lib.getName(),sfx);
     }
    catch (IOException e) {
+      iter.close();
       return BowerRouter.errorResponse(he,session,500,"Problem with temp file");
     }
    
   
    
    repo.exportRepository(f1,exp,iter);  
+   iter.close();
    
    String resp = BowerRouter.sendFileResponse(he,f1); 
    
@@ -666,83 +798,148 @@ String handleFixFields(HttpExchange he,ControlSession session)
 /*                                                                              */
 /********************************************************************************/
 
+/**
+ *      Filter given by JSON data.  The data is compiled once: columns are
+ *      resolved and match strings are folded and split into tokens.
+ *      The compiled form is immutable so it can be used from several
+ *      threads at once.
+ **/
+
 private class EntityFilter implements BurlFilter {
    
    private JSONObject filter_data;
-   private BurlRepo for_repo;
    private BurlRepoColumn sort_field;
    private boolean invert_sort;
+   private ValueMatch all_match;
+   private List<BurlRepoColumn> all_columns;
+   private List<FieldMatch> field_matches;
    
    EntityFilter(JSONObject data,BurlRepo repo,BurlRepoColumn sort,boolean invert) {
       filter_data = data;
-      for_repo = repo;
       sort_field = sort;
       invert_sort = invert;
+      all_match = null;
+      all_columns = null;
+      field_matches = new ArrayList<>();
+      
+      Object all = data.opt("all");
+      if (all != null) {
+         all_match = new ValueMatch(all);
+         all_columns = new ArrayList<>();
+         for (BurlRepoColumn brc : repo.getColumns()) {
+            all_columns.add(brc);
+          }
+       }
+      for (String key : data.keySet()) {
+         if (key.equals("all")) continue;
+         BurlRepoColumn brc = repo.getColumn(key);
+         if (brc == null) continue;
+         Object match = data.opt(key);
+         if (match == null) continue;
+         field_matches.add(new FieldMatch(brc,new ValueMatch(match)));
+       }
     } 
     
    @Override public boolean matches(BurlRepoRow row) {
-      Object all = filter_data.opt("all");
-      if (all != null) {
+      if (all_match != null) {
          boolean matchany = false;
-         for (BurlRepoColumn brc : for_repo.getColumns()) {
-            String data = row.getData(brc);
+         for (BurlRepoColumn brc : all_columns) {
+            String data = row.getFoldedData(brc);
             if (data == null || data.isEmpty()) continue;
-            if (matchItem(data,all)) {
+            if (all_match.matches(data)) {
                matchany = true;
                break;
              }
           }
          if (!matchany) return false;
        }
-      String [] flds = JSONObject.getNames(filter_data);
-      if (flds == null || flds.length == 0) return true;
       
-      for (String key : JSONObject.getNames(filter_data)) { 
-         if (key.equals("all")) continue;
-         BurlRepoColumn brc = for_repo.getColumn(key);
-         if (brc == null) continue;
-         Object match = filter_data.opt(key);
-         if (match == null) continue;
-         String data = row.getData(brc);
-         if (!matchItem(data,match)) return false;
+      for (FieldMatch fm : field_matches) {
+         if (!fm.matches(row)) return false;
        }
       return true;
     } 
    
-   private boolean matchItem(String data,Object keyobj) {
-      data = data.toLowerCase();
+   @Override public BurlRepoColumn getSortField() {
+      return sort_field;
+    }
+   
+   @Override public boolean invertSort() {
+      return invert_sort;
+    }
+   
+   @Override public JSONObject getFilterData() {
+      return filter_data;
+    }
+   
+}       // end of inner class EntityFilter
+
+
+
+/**
+ *      Compiled match for one filter value: a string matches data that
+ *      contains all its tokens; an array matches if any element does
+ **/
+
+private static class ValueMatch {
+   
+   private List<String []> match_alternatives;
+   
+   ValueMatch(Object keyobj) {
+      match_alternatives = new ArrayList<>();
       if (keyobj instanceof String) {
-         String key = keyobj.toString().toLowerCase();
-         for (StringTokenizer tok = new StringTokenizer(key); tok.hasMoreTokens(); ) {
-            String t = tok.nextToken();
-            if (!data.contains(t)) return false;
-          }
-         return true;
+         match_alternatives.add(getTokens(keyobj.toString()));
        }
       else if (keyobj instanceof JSONArray) {
          JSONArray arr = (JSONArray) keyobj;
-         boolean match = false;
-         for (int i = 0; i< arr.length(); ++i) {
-            String s = arr.getString(i).toLowerCase();
-            if (matchItem(data,s)) {
-               match = true;
+         for (int i = 0; i < arr.length(); ++i) {
+            match_alternatives.add(getTokens(arr.getString(i)));
+          }
+       }
+    }
+   
+   boolean matches(String foldeddata) {
+      if (foldeddata == null) return false;
+      for (String [] toks : match_alternatives) {
+         boolean fg = true;
+         for (String t : toks) {
+            if (!foldeddata.contains(t)) {
+               fg = false;
                break;
              }
           }
-         return match;
+         if (fg) return true;
        }
       return false;
     }
    
-   @Override public BurlRepoColumn getSortField() {
-      return sort_field;
+   private static String [] getTokens(String key) {
+      List<String> toks = new ArrayList<>();
+      for (StringTokenizer tok = new StringTokenizer(BurlUtil.foldString(key)); tok.hasMoreTokens(); ) {
+         toks.add(tok.nextToken());
+       }
+      return toks.toArray(new String[toks.size()]);
     }
    
-   @Override public boolean invertSort() {
-      return invert_sort;
+}       // end of inner class ValueMatch
+
+
+
+private static class FieldMatch {
+   
+   private BurlRepoColumn match_column;
+   private ValueMatch value_match;
+   
+   FieldMatch(BurlRepoColumn brc,ValueMatch vm) {
+      match_column = brc;
+      value_match = vm;
     }
    
-}       // end of inner class EntityFilter
+   boolean matches(BurlRepoRow row) {
+      return value_match.matches(row.getFoldedData(match_column));
+    }
+   
+}       // end of inner class FieldMatch
 
 
 
@@ -0,0 +1,247 @@
+/********************************************************************************/
+/*                                                                              */
+/*              ControlFilterCache.java                                         */
+/*                                                                              */
+/*      Bounded, expiring cache of the row iterators of paged searches          */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.control;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.json.JSONObject;
+
+import edu.brown.cs.burl.burl.BurlControl;
+import edu.brown.cs.burl.burl.BurlUtil;
+import edu.brown.cs.ivy.file.IvyLog;
+
+class ControlFilterCache implements ControlConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private Map<String,CacheEntry> cache_map;       // in access order
+private int max_entries;
+private long max_bytes;
+private long idle_time;
+private long total_bytes;
+private long evict_count;
+private long expire_count;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+ControlFilterCache(BurlControl bc)
+{
+   cache_map = new LinkedHashMap<>(16,0.75f,true);
+   max_entries = (int) BurlUtil.getLongProperty(bc,"filterCacheSize",FILTER_CACHE_SIZE);
+   max_bytes = BurlUtil.getLongProperty(bc,"filterCacheBytes",FILTER_CACHE_BYTES);
+   idle_time = BurlUtil.getLongProperty(bc,"filterCacheIdle",FILTER_CACHE_IDLE);
+   total_bytes = 0;
+   evict_count = 0;
+   expire_count = 0;
+
+   Timer t = new Timer("BurlFilterCacheSweeper",true);
+   long delay = Math.max(1000,idle_time/4);
+   t.schedule(new Sweeper(),delay,delay);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Save an iterator for a later page.  This may evict the least
+ *      recently used entries to stay in bounds; the newest entry is
+ *      always kept.
+ **/
+
+void put(String id,BurlRowIter iter)
+{
+   List<CacheEntry> evicted = new ArrayList<>();
+
+   synchronized (this) {
+      CacheEntry old = cache_map.remove(id);
+      if (old != null) {
+         total_bytes -= old.getSize();
+         if (old.getIterator() != iter) evicted.add(old);
+       }
+      CacheEntry ent = new CacheEntry(iter);
+      cache_map.put(id,ent);
+      total_bytes += ent.getSize();
+
+      Iterator<CacheEntry> it = cache_map.values().iterator();
+      while (cache_map.size() > 1 &&
+            (cache_map.size() > max_entries || total_bytes > max_bytes)) {
+         CacheEntry victim = it.next();
+         it.remove();
+         total_bytes -= victim.getSize();
+         ++evict_count;
+         evicted.add(victim);
+       }
+    }
+
+   closeEntries(evicted);
+}
+
+
+/**
+ *      Take an iterator out of the cache.  The caller is responsible for
+ *      closing it or putting it back.
+ **/
+
+synchronized BurlRowIter remove(String id)
+{
+   CacheEntry ent = cache_map.remove(id);
+   if (ent == null) return null;
+   total_bytes -= ent.getSize();
+
+   return ent.getIterator();
+}
+
+
+synchronized boolean containsKey(String id)
+{
+   return cache_map.containsKey(id);
+}
+
+
+synchronized JSONObject getMetrics()
+{
+   return BurlUtil.buildJson("entries",cache_map.size(),
+         "bytes",total_bytes,
+         "evictions",evict_count,
+         "expirations",expire_count);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Expiration and eviction                                                 */
+/*                                                                              */
+/********************************************************************************/
+
+void removeIdleEntries()
+{
+   List<CacheEntry> expired = new ArrayList<>();
+   long now = System.currentTimeMillis();
+
+   synchronized (this) {
+      for (Iterator<CacheEntry> it = cache_map.values().iterator(); it.hasNext(); ) {
+         CacheEntry ent = it.next();
+         // access order: everything after a live entry is live too
+         if (now - ent.getLastUsed() < idle_time) break;
+         it.remove();
+         total_bytes -= ent.getSize();
+         ++expire_count;
+         expired.add(ent);
+       }
+    }
+
+   if (!expired.isEmpty()) {
+      IvyLog.logD("BURL","Expired " + expired.size() + " idle search iterators " +
+            getMetrics());
+    }
+
+   closeEntries(expired);
+}
+
+
+private void closeEntries(List<CacheEntry> ents)
+{
+   for (CacheEntry ent : ents) {
+      try {
+         ent.getIterator().close();
+       }
+      catch (Throwable t) {
+         IvyLog.logE("BURL","Problem closing search iterator",t);
+       }
+    }
+}
+
+
+/**
+ *      Rough memory estimate for an iterator: what it still has to return
+ **/
+
+private static long estimateSize(BurlRowIter iter)
+{
+   long rows = Math.max(0,iter.getRowCount() - iter.getIndex());
+   return FILTER_ENTRY_BYTES + rows * FILTER_ROW_BYTES;
+}
+
+
+
+private class Sweeper extends TimerTask {
+
+   @Override public void run() {
+      removeIdleEntries();
+    }
+
+}       // end of inner class Sweeper
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Cache entry                                                             */
+/*                                                                              */
+/********************************************************************************/
+
+private static class CacheEntry {
+
+   private BurlRowIter row_iter;
+   private long entry_size;
+   private long last_used;
+
+   CacheEntry(BurlRowIter iter) {
+      row_iter = iter;
+      entry_size = estimateSize(iter);
+      last_used = System.currentTimeMillis();
+    }
+
+   BurlRowIter getIterator()                    { return row_iter; }
+   long getSize()                               { return entry_size; }
+   long getLastUsed()                           { return last_used; }
+
+}       // end of inner class CacheEntry
+
+
+
+}       // end of class ControlFilterCache
+
+
+
+
+/* end of ControlFilterCache.java */
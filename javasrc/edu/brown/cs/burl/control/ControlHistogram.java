@@ -0,0 +1,233 @@
+/********************************************************************************/
+/*                                                                              */
+/*              ControlHistogram.java                                           */
+/*                                                                              */
+/*      Rolling histogram of operation times                                    */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.control;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.brown.cs.burl.burl.BurlUtil;
+
+class ControlHistogram implements ControlConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private long window_length;
+private long window_start;
+private Window current_window;
+private Window previous_window;
+private Window total_window;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+ControlHistogram(long window)
+{
+   window_length = window;
+   window_start = System.currentTimeMillis();
+   current_window = new Window();
+   previous_window = null;
+   total_window = new Window();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Recording                                                               */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Record one operation taking the given time (ns) and producing the
+ *      given number of rows (-1 if not known)
+ **/
+
+synchronized void record(long ns,int rows)
+{
+   checkWindow();
+   current_window.add(ns,rows);
+   total_window.add(ns,rows);
+}
+
+
+/**
+ *      Add rows to the current window that were produced after the
+ *      operation was timed (e.g. read from a result set)
+ **/
+
+synchronized void addRows(int rows)
+{
+   checkWindow();
+   current_window.addRows(rows);
+   total_window.addRows(rows);
+}
+
+
+private void checkWindow()
+{
+   long now = System.currentTimeMillis();
+   if (now - window_start < window_length) return;
+
+   // an idle stretch longer than a window leaves nothing to compare against
+   if (now - window_start < 2*window_length) previous_window = current_window;
+   else previous_window = null;
+   current_window = new Window();
+   window_start = now - (now - window_start) % window_length;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Output methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+synchronized long getTotalCount()
+{
+   return total_window.op_count;
+}
+
+
+synchronized JSONObject toJson()
+{
+   checkWindow();
+   JSONObject rslt = current_window.toJson();
+   rslt.put("total",total_window.op_count);
+   rslt.put("windowStart",window_start);
+   if (previous_window != null) rslt.put("previous",previous_window.toJson());
+   return rslt;
+}
+
+
+/**
+ *      Output the counts since startup in Prometheus text format, which
+ *      expects them never to decrease; the windows are only used for JSON.
+ *      Buckets there are cumulative and in seconds.
+ **/
+
+synchronized void outputPrometheus(StringBuffer buf,String name,String labels)
+{
+   String lbl = (labels == null || labels.isEmpty() ? "" : labels + ",");
+   long cum = 0;
+   for (int i = 0; i < TIME_BUCKETS.length; ++i) {
+      cum += total_window.bucket_counts[i];
+      buf.append(name + "_bucket{" + lbl + "le=\"" + (TIME_BUCKETS[i] / 1000.0) + "\"} " +
+            cum + "\n");
+    }
+   buf.append(name + "_bucket{" + lbl + "le=\"+Inf\"} " + total_window.op_count + "\n");
+   String sfx = (lbl.isEmpty() ? "" : "{" + labels + "}");
+   buf.append(name + "_sum" + sfx + " " + (total_window.total_time / 1.0e9) + "\n");
+   buf.append(name + "_count" + sfx + " " + total_window.op_count + "\n");
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Counts for a single window                                              */
+/*                                                                              */
+/********************************************************************************/
+
+private static class Window {
+
+   private long [] bucket_counts;
+   private long op_count;
+   private long total_time;
+   private long max_time;
+   private long total_rows;
+
+   Window() {
+      bucket_counts = new long[TIME_BUCKETS.length + 1];
+      op_count = 0;
+      total_time = 0;
+      max_time = 0;
+      total_rows = 0;
+    }
+
+   void add(long ns,int rows) {
+      long ms = ns / 1000000;
+      int idx = 0;
+      while (idx < TIME_BUCKETS.length && ms >= TIME_BUCKETS[idx]) ++idx;
+      ++bucket_counts[idx];
+      ++op_count;
+      total_time += ns;
+      max_time = Math.max(max_time,ns);
+      if (rows > 0) total_rows += rows;
+    }
+
+   void addRows(int rows) {
+      if (rows > 0) total_rows += rows;
+    }
+
+   JSONObject toJson() {
+      JSONArray bkts = new JSONArray();
+      for (int i = 0; i < bucket_counts.length; ++i) {
+         long bnd = (i < TIME_BUCKETS.length ? TIME_BUCKETS[i] : -1);
+         bkts.put(BurlUtil.buildJson("lt",bnd,"count",bucket_counts[i]));
+       }
+      double avg = (op_count == 0 ? 0 : total_time / 1.0e6 / op_count);
+      return BurlUtil.buildJson("count",op_count,
+            "totalMs",total_time / 1.0e6,
+            "avgMs",avg,
+            "p50Ms",getPercentile(0.50),
+            "p95Ms",getPercentile(0.95),
+            "p99Ms",getPercentile(0.99),
+            "maxMs",max_time / 1.0e6,
+            "rows",total_rows,
+            "buckets",bkts);
+    }
+
+   /**
+    *    Estimate a percentile as the upper bound of the bucket holding it,
+    *    but no more than the maximum seen
+    **/
+   
+   double getPercentile(double p) {
+      if (op_count == 0) return 0;
+      double max = max_time / 1.0e6;
+      long want = (long) Math.ceil(p * op_count);
+      long cum = 0;
+      for (int i = 0; i < TIME_BUCKETS.length; ++i) {
+         cum += bucket_counts[i];
+         if (cum >= want) return Math.min(TIME_BUCKETS[i],max);
+       }
+      return max;
+    }
+
+}       // end of inner class Window
+
+
+
+}       // end of class ControlHistogram
+
+
+
+
+/* end of ControlHistogram.java */
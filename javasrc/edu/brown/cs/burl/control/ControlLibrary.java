@@ -167,11 +167,19 @@ private String getUsers(BurlUserAccess level,List<BurlLibraryAccess> acclst)
    
    // possibly do a broader search if bibentry is null here
    
+   boolean isnew = false;
    if (row == null || mode == BurlUpdateMode.NEW) {
       row = repo.newRow();
-      repo.setInitialValues(row,isbn);
+      isnew = true;
+    }
+   row.startEdit();
+   try {
+      if (isnew) repo.setInitialValues(row,isbn);
+      repo.computeEntry(row,isbn,bibentry,mode); 
+    }
+   finally {
+      row.commitEdit();
     }
-   repo.computeEntry(row,isbn,bibentry,mode); 
    
    if (bibentry != null) {
       IvyLog.logD("BURL","Computed BIB ENTRY for " + isbn);
@@ -23,9 +23,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import edu.brown.cs.burl.bibentry.BibEntryFactory;
 import edu.brown.cs.burl.burl.BurlBibEntry;
@@ -74,7 +76,7 @@ private File            base_directory;
 private BurlRepoFactory repo_factory;
 private BurlUpdateMode  update_mode;
 private BibEntryFactory bibentry_factory;
-private Map<Number,BurlRepo> repo_map;
+private Map<Number,FutureTask<BurlRepo>> repo_map;   // opened or being opened
 private String          url_prefix;
 
 
@@ -95,7 +97,7 @@ private ControlMain(String [] args)
    repo_factory = new RepoFactory(this);   
    bibentry_factory = new BibEntryFactory(this);
    
-   repo_map = new HashMap<>();
+   repo_map = new ConcurrentHashMap<>();
 }
 
 
@@ -152,6 +154,12 @@ private void badArgs()
 
 Properties getProperties()			{ return base_properties; }
 
+@Override public String getProperty(String name)
+{
+   return base_properties.getProperty(name);
+}
+
+
 @Override public ControlStorage getStorage()	
 { 
    return control_storage; 
@@ -339,7 +347,9 @@ private void process()
    
    BurlRepo repo = repo_factory.createRepository(lib);
    if (repo != null) {
-      repo_map.put(lib.getId(),repo);
+      FutureTask<BurlRepo> ft = new FutureTask<>(() -> repo);
+      ft.run();
+      repo_map.put(lib.getId(),ft);
     }
  
    return lib;
@@ -352,7 +362,8 @@ private void process()
    if (lib == null) return; 
    
    control_storage.removeLibrary(lib.getId());
-   BurlRepo repo = repo_map.get(lib.getId());
+   FutureTask<BurlRepo> ft = repo_map.remove(lib.getId());
+   BurlRepo repo = getRepository(ft);
    if (repo != null) {
       repo.deleteRepository();
     }
@@ -370,21 +381,58 @@ private void process()
 }
 
 
+/**
+ *      Find the repository for a library, opening it if needed.  Request
+ *      threads and the work thread can ask at once: the first registers a
+ *      task and opens the repository outside the map, the others wait for it.
+ **/
+
 BurlRepo findRepository(BurlLibrary lib)
 {
    if (lib == null) return null;
    
-   BurlRepo repo = repo_map.get(lib.getId());
-   
-   if (repo == null) {
-      repo = repo_factory.createRepository(lib);
-      repo_map.put(lib.getId(),repo);
+   Number lid = lib.getId();
+   FutureTask<BurlRepo> ft = repo_map.get(lid);
+   if (ft == null) {
+      FutureTask<BurlRepo> nft = new FutureTask<>(() -> repo_factory.createRepository(lib));
+      ft = repo_map.putIfAbsent(lid,nft);
+      if (ft == null) {
+         ft = nft;
+         // a library removed meanwhile must not get its storage back
+         if (control_storage.findLibraryById(lid) == null) {
+            repo_map.remove(lid,ft);
+            return null;
+          }
+         ft.run();
+       }
     }
    
+   BurlRepo repo = getRepository(ft);
+   // let a later request try again
+   if (repo == null) repo_map.remove(lid,ft);
+   
    return repo;
 }
 
 
+private BurlRepo getRepository(FutureTask<BurlRepo> ft)
+{
+   if (ft == null) return null;
+   
+   try {
+      return ft.get();
+    }
+   catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+   catch (ExecutionException e) {
+      IvyLog.logE("BURL","Problem opening repository",e.getCause());
+    }
+   
+   return null;
+}
+
+
 BurlBibEntry findBibEntry(String isbn)
 {
    if (isbn == null || isbn.isEmpty()) return null;
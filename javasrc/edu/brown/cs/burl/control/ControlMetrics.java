@@ -0,0 +1,227 @@
+/********************************************************************************/
+/*                                                                              */
+/*              ControlMetrics.java                                             */
+/*                                                                              */
+/*      Latency and status counts for the REST routes                           */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.control;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import edu.brown.cs.burl.burl.BurlUtil;
+
+class ControlMetrics implements ControlConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private Map<String,RouteStats> route_stats;
+private long stats_window;
+
+// error responses are short; longer results are taken to be successful
+private static final int MAX_STATUS_CHECK = 1024;
+
+
+/**
+ *      A route handler as given to BowerRouter.addRoute
+ **/
+
+interface RouteHandler {
+   String handle(HttpExchange he,ControlSession session);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+ControlMetrics(long window)
+{
+   route_stats = new ConcurrentHashMap<>();
+   stats_window = window;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Timing a request                                                        */
+/*                                                                              */
+/********************************************************************************/
+
+String handle(String route,HttpExchange he,ControlSession session,RouteHandler h)
+{
+   long start = System.nanoTime();
+   String status = "500";
+   try {
+      String rslt = h.handle(he,session);
+      status = getStatus(he,rslt);
+      return rslt;
+    }
+   finally {
+      RouteStats rs = route_stats.computeIfAbsent(route,(r) -> new RouteStats());
+      rs.record(System.nanoTime() - start,status);
+    }
+}
+
+
+/**
+ *      Find the status of a handled request.  If the response has not been
+ *      sent yet, a JSON response whose status is not OK is an error.
+ **/
+
+private static String getStatus(HttpExchange he,String rslt)
+{
+   int code = he.getResponseCode();
+   if (code > 0) return Integer.toString(code);
+   if (rslt == null) return "none";
+
+   if (rslt.length() <= MAX_STATUS_CHECK && rslt.startsWith("{")) {
+      try {
+         JSONObject jo = new JSONObject(rslt);
+         if (!jo.optString("status","OK").equals("OK")) return "error";
+       }
+      catch (JSONException e) { }
+    }
+
+   return "200";
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Output methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+JSONObject getMetrics()
+{
+   JSONObject rslt = new JSONObject();
+   for (Map.Entry<String,RouteStats> ent : new TreeMap<>(route_stats).entrySet()) {
+      rslt.put(ent.getKey(),ent.getValue().toJson());
+    }
+   return rslt;
+}
+
+
+void outputPrometheus(StringBuffer buf)
+{
+   Map<String,RouteStats> routes = new TreeMap<>(route_stats);
+
+   buf.append("# TYPE burl_http_request_duration_seconds histogram\n");
+   for (Map.Entry<String,RouteStats> ent : routes.entrySet()) {
+      String lbl = "route=\"" + escapeLabel(ent.getKey()) + "\"";
+      ent.getValue().getLatency().outputPrometheus(buf,
+            "burl_http_request_duration_seconds",lbl);
+    }
+
+   buf.append("# TYPE burl_http_requests_total counter\n");
+   for (Map.Entry<String,RouteStats> ent : routes.entrySet()) {
+      String lbl = "route=\"" + escapeLabel(ent.getKey()) + "\"";
+      for (Map.Entry<String,AtomicLong> sent : ent.getValue().getStatusCounts().entrySet()) {
+         buf.append("burl_http_requests_total{" + lbl + ",status=\"" +
+               escapeLabel(sent.getKey()) + "\"} " + sent.getValue().get() + "\n");
+       }
+    }
+
+   buf.append("# TYPE burl_http_errors_total counter\n");
+   for (Map.Entry<String,RouteStats> ent : routes.entrySet()) {
+      String lbl = "route=\"" + escapeLabel(ent.getKey()) + "\"";
+      buf.append("burl_http_errors_total{" + lbl + "} " + ent.getValue().getErrorCount() + "\n");
+    }
+}
+
+
+static String escapeLabel(String s)
+{
+   return s.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n");
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Statistics for a route                                                  */
+/*                                                                              */
+/********************************************************************************/
+
+private class RouteStats {
+
+   private ControlHistogram route_latency;
+   private Map<String,AtomicLong> status_counts;
+   private AtomicLong error_count;
+
+   RouteStats() {
+      route_latency = new ControlHistogram(stats_window);
+      status_counts = new ConcurrentHashMap<>();
+      error_count = new AtomicLong();
+    }
+
+   void record(long ns,String status) {
+      route_latency.record(ns,-1);
+      status_counts.computeIfAbsent(status,(s) -> new AtomicLong()).incrementAndGet();
+      if (isError(status)) error_count.incrementAndGet();
+    }
+
+   ControlHistogram getLatency()                { return route_latency; }
+   Map<String,AtomicLong> getStatusCounts()     { return new TreeMap<>(status_counts); }
+   long getErrorCount()                         { return error_count.get(); }
+
+   JSONObject toJson() {
+      JSONObject sts = new JSONObject();
+      for (Map.Entry<String,AtomicLong> ent : getStatusCounts().entrySet()) {
+         sts.put(ent.getKey(),ent.getValue().get());
+       }
+      return BurlUtil.buildJson("latency",route_latency.toJson(),
+            "status",sts,
+            "errors",error_count.get());
+    }
+
+   private boolean isError(String status) {
+      if (status.equals("error")) return true;
+      try {
+         return Integer.parseInt(status) >= 400;
+       }
+      catch (NumberFormatException e) {
+         return false;
+       }
+    }
+
+}       // end of inner class RouteStats
+
+
+
+}       // end of class ControlMetrics
+
+
+
+
+/* end of ControlMetrics.java */
@@ -18,10 +18,13 @@
 package edu.brown.cs.burl.control;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -66,6 +69,7 @@ private ControlAuthentication burl_auth;
 private ControlEntries entry_manager;
 private ControlStorage burl_store;
 private ControlWorkThread work_thread;
+private ControlMetrics route_metrics;
 
 
 
@@ -89,6 +93,7 @@ ControlServer(ControlMain main,String keystorepwd)
    burl_store = main.getStorage();
    work_thread = new ControlWorkThread(main);
    work_thread.start();
+   route_metrics = new ControlMetrics(burl_store.getStatsWindow());
    
    BowerRouter<ControlSession> br = setupRouter();
    
@@ -132,49 +137,50 @@ BowerRouter<ControlSession> setupRouter()
    br.addRoute("ALL",br::handleSessions); 
    br.addRoute("ALL",new BowerCORS("*"));
    
-   br.addRoute("ALL","/rest/ping",this::handlePing);
+   addRoute(br,"ALL","/rest/ping",this::handlePing);
  
-   br.addRoute("GET","/rest/login",burl_auth::handlePreLogin);
-   br.addRoute("GET","/rest/register",burl_auth::handlePreRegister); 
-   br.addRoute("POST","/rest/login",burl_auth::handleLogin);
-   br.addRoute("POST","/rest/register",burl_auth::handleRegister);
-   br.addRoute("ALL","/rest/logout",burl_auth::handleLogout);
+   addRoute(br,"GET","/rest/login",burl_auth::handlePreLogin);
+   addRoute(br,"GET","/rest/register",burl_auth::handlePreRegister); 
+   addRoute(br,"POST","/rest/login",burl_auth::handleLogin);
+   addRoute(br,"POST","/rest/register",burl_auth::handleRegister);
+   addRoute(br,"ALL","/rest/logout",burl_auth::handleLogout);
    
-   br.addRoute("GET","/validate",burl_auth::handleValidationRequest);
-   br.addRoute("GET","/rest/validate",burl_auth::handleValidationRequest);
-   br.addRoute("ALL","/rest/forgotpassword",burl_auth::handleForgotPassword);
+   addRoute(br,"GET","/validate",burl_auth::handleValidationRequest);
+   addRoute(br,"GET","/rest/validate",burl_auth::handleValidationRequest);
+   addRoute(br,"ALL","/rest/forgotpassword",burl_auth::handleForgotPassword);
    
-   br.addRoute("ALL","/rest/fielddata",this::handleFieldData);
-   br.addRoute("ALL","/rest/log",this::handleLog);
+   addRoute(br,"ALL","/rest/fielddata",this::handleFieldData);
+   addRoute(br,"ALL","/rest/log",this::handleLog);
+   addRoute(br,"GET","/rest/metrics",this::handleMetrics);
    
    br.addRoute("USE",burl_auth::handleAuthentication);
    
-   br.addRoute("POST","/rest/addlibraryuser",this::handleAddLibraryUser);
-   br.addRoute("POST","/rest/createlibrary",this::handleCreateLibrary);
-   br.addRoute("POST","/rest/findlibraries",this::handleFindAllLibraries);
-   br.addRoute("POST","/rest/removelibrary",this::handleRemoveLibrary);
-   br.addRoute("POST","/rest/labels",this::handlePrintLabels);
-   
-   br.addRoute("POST","/rest/addisbns",this::handleAddIsbns);
-   br.addRoute("POST","/rest/import",this::handleImport);
-   
-   br.addRoute("POST","/rest/getentry",entry_manager::handleGetEntry);
-   br.addRoute("POST","/rest/entries",entry_manager::handleFindEntries); 
-   br.addRoute("POST","/rest/editentry",entry_manager::handleEditEntry); 
-   br.addRoute("POST","/rest/groupedit",entry_manager::handleGroupEdit); 
-   br.addRoute("POST","/rest/removeentry",entry_manager::handleRemoveEntry); 
-   br.addRoute("POST","/rest/duplicateentry",entry_manager::handleDuplicateEntry); 
-   br.addRoute("POST","/rest/addentry",entry_manager::handleAddEntry); 
-   br.addRoute("POST","/rest/exportlibrary",entry_manager::handleExportEntries); 
-   br.addRoute("POST","/rest/fixfields",entry_manager::handleFixFields); 
+   addRoute(br,"POST","/rest/addlibraryuser",this::handleAddLibraryUser);
+   addRoute(br,"POST","/rest/createlibrary",this::handleCreateLibrary);
+   addRoute(br,"POST","/rest/findlibraries",this::handleFindAllLibraries);
+   addRoute(br,"POST","/rest/removelibrary",this::handleRemoveLibrary);
+   addRoute(br,"POST","/rest/labels",this::handlePrintLabels);
+   
+   addRoute(br,"POST","/rest/addisbns",this::handleAddIsbns);
+   addRoute(br,"POST","/rest/import",this::handleImport);
+   
+   addRoute(br,"POST","/rest/getentry",entry_manager::handleGetEntry);
+   addRoute(br,"POST","/rest/entries",entry_manager::handleFindEntries); 
+   addRoute(br,"POST","/rest/editentry",entry_manager::handleEditEntry); 
+   addRoute(br,"POST","/rest/groupedit",entry_manager::handleGroupEdit); 
+   addRoute(br,"POST","/rest/removeentry",entry_manager::handleRemoveEntry); 
+   addRoute(br,"POST","/rest/duplicateentry",entry_manager::handleDuplicateEntry); 
+   addRoute(br,"POST","/rest/addentry",entry_manager::handleAddEntry); 
+   addRoute(br,"POST","/rest/exportlibrary",entry_manager::handleExportEntries); 
+   addRoute(br,"POST","/rest/fixfields",entry_manager::handleFixFields); 
    
 // br.addRoute("POST","/rest/removeentry",this::handleRemoveEntry);
    
-   br.addRoute("GET","/rest/changepassword",burl_auth::handlePreChangePassword); 
-   br.addRoute("POST","/rest/changepassword",burl_auth::handleChangePassword);
-   br.addRoute("POST","/rest/removeuser",burl_auth::handleRemoveUser); 
+   addRoute(br,"GET","/rest/changepassword",burl_auth::handlePreChangePassword); 
+   addRoute(br,"POST","/rest/changepassword",burl_auth::handleChangePassword);
+   addRoute(br,"POST","/rest/removeuser",burl_auth::handleRemoveUser); 
    
-   br.addRoute("ALL","/rest/about",this::handleAbout);
+   addRoute(br,"ALL","/rest/about",this::handleAbout);
    
    br.addRoute("ALL",this::handle404);
    br.addErrorHandler(this::handleError);
@@ -183,6 +189,18 @@ BowerRouter<ControlSession> setupRouter()
 }
 
 
+/**
+ *      Add a route whose requests are timed and counted by status
+ **/
+
+private void addRoute(BowerRouter<ControlSession> br,String method,String url,
+      ControlMetrics.RouteHandler h)
+{
+   String route = method + " " + url;
+   br.addRoute(method,url,(he,session) -> route_metrics.handle(route,he,session,h));
+}
+
+
 
 
 /********************************************************************************/
@@ -215,6 +233,69 @@ String handleError(HttpExchange he,ControlSession session)
 }
 
 
+/**
+ *      Return request, SQL and search cache statistics as JSON or, given
+ *      format=prometheus, in Prometheus text format.  The caller must give
+ *      the configured metricsToken as a bearer token; the header is used
+ *      rather than a parameter since parameters are logged.
+ **/
+
+String handleMetrics(HttpExchange he,ControlSession session)
+{
+   String token = burl_main.getProperty("metricsToken");
+   String auth = he.getRequestHeaders().getFirst("Authorization");
+   if (token == null || token.isBlank() || auth == null ||
+         !MessageDigest.isEqual(("Bearer " + token).getBytes(StandardCharsets.UTF_8),
+               auth.trim().getBytes(StandardCharsets.UTF_8))) {
+      return BowerRouter.errorResponse(he,session,403,"Not authorized");
+    }
+   
+   String fmt = BowerRouter.getParameter(he,"format");
+   if (fmt == null || !fmt.equalsIgnoreCase("prometheus")) {
+      return BowerRouter.jsonOKResponse(session,
+            "routes",route_metrics.getMetrics(),
+            "sql",burl_store.getSqlMetrics(),
+            "filterCache",entry_manager.getFilterCacheMetrics());
+    }
+   
+   StringBuffer buf = new StringBuffer();
+   route_metrics.outputPrometheus(buf);
+   burl_store.outputSqlMetrics(buf);
+   JSONObject fc = entry_manager.getFilterCacheMetrics();
+   for (String key : fc.keySet()) {
+      String name = "burl_filter_cache_" + key;
+      String type = "gauge";
+      if (key.equals("evictions") || key.equals("expirations")) {
+         name += "_total";
+         type = "counter";
+       }
+      buf.append("# TYPE " + name + " " + type + "\n");
+      buf.append(name + " " + fc.get(key) + "\n");
+    }
+   
+   File f1 = null;
+   try {
+      f1 = File.createTempFile("BurlMetrics",".txt");
+    }
+   catch (IOException e) {
+      return BowerRouter.errorResponse(he,session,500,"Problem with temp file");
+    }
+   try (FileWriter fw = new FileWriter(f1)) {
+      fw.write(buf.toString());
+    }
+   catch (IOException e) {
+      f1.delete();
+      return BowerRouter.errorResponse(he,session,500,"Problem writing metrics");
+    }
+   
+   String resp = BowerRouter.sendFileResponse(he,f1);
+   
+   f1.delete();
+   
+   return resp;
+}
+
+
 String handleLog(HttpExchange he,ControlSession session) 
 {
    // enough logging is probably done using the Bower logger.
@@ -569,6 +650,7 @@ String handleImport(HttpExchange he,ControlSession session)
    if (cindata != null) {
       JSONArray dataarr = cindata.getJSONArray("rows");
       Map<BurlRepoColumn,Integer> colmap = null;
+      List<String> rows = new ArrayList<>();
       for (int i = 0; i < dataarr.length(); ++i) {
          String row = dataarr.getString(i);
          if (colmap == null) {
@@ -579,8 +661,9 @@ String handleImport(HttpExchange he,ControlSession session)
              }
             continue;
           }
-         repo.importCSV(row,updmode,colmap);
+         rows.add(row);
        }
+      if (colmap != null) repo.importCSV(rows,updmode,colmap);
       
       return BowerRouter.jsonOKResponse(session);
     }
@@ -588,10 +671,11 @@ String handleImport(HttpExchange he,ControlSession session)
    JSONObject jindata = BowerRouter.getJson(he,"jsondata");
    if (jindata != null) {
       JSONArray dataarr = jindata.getJSONArray("rows");
+      List<JSONObject> rows = new ArrayList<>();
       for (int i = 0; i < dataarr.length(); ++i) {
-         JSONObject row = dataarr.getJSONObject(i);
-         repo.importJSON(row,updmode);  
+         rows.add(dataarr.getJSONObject(i));
        }
+      repo.importJSON(rows,updmode);  
       return BowerRouter.jsonOKResponse(session);
     }
    
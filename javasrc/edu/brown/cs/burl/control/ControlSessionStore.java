@@ -17,7 +17,18 @@
 
 package edu.brown.cs.burl.control;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
 import edu.brown.cs.ivy.bower.BowerConstants.BowerSessionStore;
+import edu.brown.cs.ivy.file.IvyLog;
 
 class ControlSessionStore implements BowerSessionStore<ControlSession>, ControlConstants
 {
@@ -30,6 +41,8 @@ class ControlSessionStore implements BowerSessionStore<ControlSession>, ControlC
 /********************************************************************************/
 
 private ControlStorage store_db;
+private Map<String,CachedSession> session_cache;        // in access order
+private Set<String> used_sessions;                      // last_used not yet written
 
 
 /********************************************************************************/
@@ -40,6 +53,11 @@ private ControlStorage store_db;
 
 ControlSessionStore(ControlMain main) {
    store_db = main.getStorage();
+   session_cache = new LinkedHashMap<>(256,0.75f,true);
+   used_sessions = new LinkedHashSet<>();
+   
+   Timer t = new Timer("BurlSessionWriter",true);
+   t.schedule(new SessionWriter(),SESSION_FLUSH_TIME,SESSION_FLUSH_TIME);
 }
 
 
@@ -68,25 +86,203 @@ ControlSessionStore(ControlMain main) {
 
 @Override public void saveSession(ControlSession bs) {
    store_db.startSession(bs.getSessionId(),bs.getCode());
+   cacheSession(bs);
 }
 
+
+/**
+ *      Sessions are served from memory when possible; their last use is
+ *      recorded here and written back by the SessionWriter.
+ **/
+
 @Override public ControlSession loadSession(String sid) {
+   if (sid == null || sid.isEmpty()) return null;
+   
+   long now = System.currentTimeMillis();
+   synchronized (this) {
+      CachedSession cs = session_cache.get(sid);
+      if (cs != null) {
+         if (now - cs.getLastUsed() <= SESSION_TIMEOUT) {
+            cs.setLastUsed(now);
+            used_sessions.add(sid);
+            return cs.getSession();
+          }
+         session_cache.remove(sid);
+         used_sessions.remove(sid);
+       }
+    }
+   
    ControlSession bs = store_db.checkSession(this,sid); 
+   if (bs != null) {
+      cacheSession(bs);
+      synchronized (this) {
+         used_sessions.add(sid);
+       }
+    }
+   
    return bs;
 }
 
 @Override public void removeSession(ControlSession bs) {
    if (bs == null) return;
+   synchronized (this) {
+      session_cache.remove(bs.getSessionId());
+      used_sessions.remove(bs.getSessionId());
+    }
    store_db.removeSession(bs.getSessionId());
 }
 
+
+/**
+ *      Drop the cached sessions of a user whose session rows were removed
+ *      along with the user, so they are not served or updated from memory.
+ **/
+
+void removeUserSessions(Number uid)
+{
+   if (uid == null) return;
+   synchronized (this) {
+      for (Iterator<CachedSession> it = session_cache.values().iterator(); it.hasNext(); ) {
+         ControlSession bs = it.next().getSession();
+         Number buid = bs.getUserId();
+         if (buid != null && buid.longValue() == uid.longValue()) {
+            it.remove();
+            used_sessions.remove(bs.getSessionId());
+          }
+       }
+    }
+}
+
+
+/**
+ *      User and library changes are written immediately; otherwise the
+ *      update only notes that the session was used.
+ **/
+
 @Override public void updateSession(ControlSession bs) { 
-   store_db.updateSession(bs.getSessionId(),bs.getUserId(),
-         bs.getLibraryId());
+   String sid = bs.getSessionId();
+   synchronized (this) {
+      CachedSession cs = session_cache.get(sid);
+      if (cs != null && cs.getSession() == bs && !cs.isChanged()) {
+         cs.setLastUsed(System.currentTimeMillis());
+         used_sessions.add(sid);
+         return;
+       }
+      // the database update also sets last_used
+      used_sessions.remove(sid);
+    }
+   
+   store_db.updateSession(sid,bs.getUserId(),bs.getLibraryId());
+   cacheSession(bs);
+}
+
+
+private void cacheSession(ControlSession bs)
+{
+   List<String> evicted = new ArrayList<>();
+   
+   synchronized (this) {
+      session_cache.put(bs.getSessionId(),new CachedSession(bs));
+      Iterator<String> it = session_cache.keySet().iterator();
+      while (session_cache.size() > SESSION_CACHE_SIZE) {
+         String sid = it.next();
+         it.remove();
+         if (used_sessions.remove(sid)) evicted.add(sid);
+       }
+    }
+   
+   // the last use of a dropped session must not be lost
+   if (!evicted.isEmpty()) store_db.touchSessions(evicted);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Write back last use and drop expired sessions                           */
+/*                                                                              */
+/********************************************************************************/
+
+void writeUsedSessions()
+{
+   List<String> sids = null;
+   long now = System.currentTimeMillis();
+   
+   synchronized (this) {
+      sids = new ArrayList<>(used_sessions);
+      used_sessions.clear();
+      for (Iterator<CachedSession> it = session_cache.values().iterator(); it.hasNext(); ) {
+         CachedSession cs = it.next();
+         // access order: everything after a live session is live too
+         if (now - cs.getLastUsed() <= SESSION_TIMEOUT) break;
+         it.remove();
+       }
+    }
+   
+   if (sids.isEmpty()) return;
+   
+   try {
+      store_db.touchSessions(sids);
+    }
+   catch (Throwable t) {
+      IvyLog.logE("BURL","Problem saving session use",t);
+    }
 }
 
 
 
+private class SessionWriter extends TimerTask {
+   
+   @Override public void run() {
+      writeUsedSessions();
+    }
+   
+}       // end of inner class SessionWriter
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Cached session                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      A session along with the user and library last written for it
+ **/
+
+private static class CachedSession {
+   
+   private ControlSession for_session;
+   private Number saved_userid;
+   private Number saved_libraryid;
+   private long last_used;
+   
+   CachedSession(ControlSession bs) {
+      for_session = bs;
+      saved_userid = bs.getUserId();
+      saved_libraryid = bs.getLibraryId();
+      last_used = System.currentTimeMillis();
+    }
+   
+   ControlSession getSession()                  { return for_session; }
+   long getLastUsed()                           { return last_used; }
+   void setLastUsed(long t)                     { last_used = t; }
+   
+   boolean isChanged() {
+      return !sameId(saved_userid,for_session.getUserId()) ||
+         !sameId(saved_libraryid,for_session.getLibraryId());
+    }
+   
+   private static boolean sameId(Number n1,Number n2) {
+      if (n1 == null || n2 == null) return n1 == n2;
+      return n1.longValue() == n2.longValue();
+    }
+   
+}       // end of inner class CachedSession
+
+
+
 }       // end of class ControlSessionStore
 
 
@@ -20,12 +20,24 @@ package edu.brown.cs.burl.control;
 import java.io.File;
 import java.io.InputStream;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import edu.brown.cs.burl.burl.BurlException;
@@ -53,8 +65,14 @@ class ControlStorage implements ControlConstants, BurlStorage
 /********************************************************************************/
 
 private ControlMain	burl_control;
-private BowerDatabasePool sql_database;
+private ControlDatabase sql_database;
 private String		database_name;
+private Map<String,RowCount> row_counts;
+private Map<String,RepoStatements> repo_statements;
+private Map<Long,Map<String,BurlUserAccess>> access_cache;      // by library, email
+private AtomicLong	access_generation;
+private Map<Long,ControlLibrary> library_cache;
+private AtomicLong	library_generation;
 
 
 /********************************************************************************/
@@ -67,12 +85,19 @@ ControlStorage(ControlMain ctrl)
 {
    burl_control = ctrl;
    sql_database = null;
+   BowerDatabasePool pool = null;
    database_name = BURL_DATA_STORE;
+   row_counts = new ConcurrentHashMap<>();
+   repo_statements = new ConcurrentHashMap<>();
+   access_cache = new ConcurrentHashMap<>();
+   access_generation = new AtomicLong();
+   library_cache = new ConcurrentHashMap<>();
+   library_generation = new AtomicLong();
 
    Properties props = burl_control.getProperties();
    if (props.containsKey("edu.brown.cs.ivy.file.dbmstype")) {
       try {
-	 sql_database = new BowerDatabasePool(props,database_name);
+	 pool = new BowerDatabasePool(props,database_name);
        }
       catch (SQLException e) { }
     }
@@ -82,28 +107,72 @@ ControlStorage(ControlMain ctrl)
    File f3 = new File(f2,"burl");
    File f4 = new File(f3,"database.props");
 
-   if (sql_database == null && f4.exists()) {
+   if (pool == null && f4.exists()) {
       try {
-	 sql_database = new BowerDatabasePool(f4,database_name);
+	 pool = new BowerDatabasePool(f4,database_name);
        }
       catch (SQLException e) { }
     }
    File f5 = new File(f1,"database.props");
-   if (sql_database == null && f5.exists()) {
+   if (pool == null && f5.exists()) {
       try {
-	 sql_database = new BowerDatabasePool(f5,database_name);
+	 pool = new BowerDatabasePool(f5,database_name);
        }
       catch (SQLException e) { }
     }
-   if (sql_database == null) {
+   if (pool == null) {
       try (InputStream ins = getClass().getClassLoader().getResourceAsStream("database.props")) {
-	 sql_database = new BowerDatabasePool(ins,database_name);
+	 pool = new BowerDatabasePool(ins,database_name);
        } 
       catch (Exception e) {
 	 IvyLog.logE("BURL","Database properties not found or bad");
 	 System.exit(1);
        }
     }
+   
+   sql_database = new ControlDatabase(pool,burl_control);
+   
+   updateSchema();
+}
+
+
+/**
+ *      Bring the control tables of an older database up to date so that
+ *      migrations recorded there are not redone on every open
+ **/
+
+private void updateSchema()
+{
+   String q1 = "ALTER TABLE BurlRepoStores ADD COLUMN IF NOT EXISTS " +
+      "fold_version int NOT NULL DEFAULT 0";
+   if (sql_database.sqlUpdate(q1) < 0) {
+      IvyLog.logE("BURL","Problem adding fold_version to BurlRepoStores");
+    }
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Statistics								*/
+/*										*/
+/********************************************************************************/
+
+JSONObject getSqlMetrics()
+{
+   return sql_database.getMetrics();
+}
+
+
+long getStatsWindow()
+{
+   return sql_database.getStatsWindow();
+}
+
+
+void outputSqlMetrics(StringBuffer buf)
+{
+   sql_database.outputPrometheus(buf);
 }
 
 
@@ -234,12 +303,22 @@ ControlStorage(ControlMain ctrl)
 {
    if (uid == null) return; 
    
+   String q0 = "SELECT email FROM BurlUsers WHERE id = $1";
    String q1 = "DELETE FROM BurlUserAccess WHERE userid = $1";
    String q2 = "DELETE FROM BurlUsers WHERE id = $1";
    // third query to delete any libraries that have no associated users
    
+   JSONObject juser = sql_database.sqlQuery1(q0,uid);
    sql_database.sqlUpdate(q1,uid);
    sql_database.sqlUpdate(q2,uid); 
+   
+   access_generation.incrementAndGet();
+   if (juser != null) {
+      String email = juser.getString("email");
+      for (Map<String,BurlUserAccess> accs : access_cache.values()) {
+         accs.remove(email);
+       }
+    }
 }
 
 
@@ -286,7 +365,10 @@ ControlStorage(ControlMain ctrl)
    JSONObject libj = sql_database.sqlQuery1(q2,namekey);
    if (libj == null) return null;
    
-   return new ControlLibrary(burl_control,libj);
+   ControlLibrary lib = new ControlLibrary(burl_control,libj);
+   library_cache.put(lib.getId().longValue(),lib);
+   
+   return lib;
 }
 
 
@@ -308,15 +390,33 @@ ControlStorage(ControlMain ctrl)
 }
 
 
+/**
+ *      Libraries are cached by id so each has a single ControlLibrary.
+ *      Libraries don't change once created; createLibrary and removeLibrary
+ *      keep the cache current.  As for access levels, removeLibrary bumps
+ *      library_generation so a lookup that read the row before the delete
+ *      does not leave it cached.
+ **/
+
 @Override public ControlLibrary findLibraryById(Number lid)
 {
    if (lid == null) return null;
    
+   ControlLibrary lib = library_cache.get(lid.longValue());
+   if (lib != null) return lib;
+   
+   long gen = library_generation.get();
    String q1 = "SELECT * FROM BurlLibraries WHERE id = $1";
    JSONObject libj = sql_database.sqlQuery1(q1,lid);
    if (libj == null) return null;
    
-   return new ControlLibrary(burl_control,libj);
+   lib = new ControlLibrary(burl_control,libj);
+   ControlLibrary prior = library_cache.putIfAbsent(lid.longValue(),lib);
+   if (prior == null && library_generation.get() != gen) {
+      library_cache.remove(lid.longValue(),lib);
+    }
+   
+   return (prior == null ? lib : prior);
 } 
 
 
@@ -329,6 +429,11 @@ ControlStorage(ControlMain ctrl)
    sql_database.sqlUpdate(q1,lid);
    sql_database.sqlUpdate(q1a,lid);
    sql_database.sqlUpdate(q2,lid);
+   
+   library_generation.incrementAndGet();
+   library_cache.remove(lid.longValue());
+   access_generation.incrementAndGet();
+   access_cache.remove(lid.longValue());
 }
 
 
@@ -339,14 +444,41 @@ ControlStorage(ControlMain ctrl)
 /*                                                                              */
 /********************************************************************************/
 
+/**
+ *      Access levels are cached by library and email.  Everything that
+ *      changes them here updates or drops the cached values.  Dropping
+ *      values first bumps access_generation so that a lookup that read
+ *      the database before the change does not leave its result cached.
+ **/
+
 @Override public BurlUserAccess getUserAccess(String email,Number lid) 
 {
+   if (email == null || lid == null) return BurlUserAccess.NONE;
+   
+   Map<String,BurlUserAccess> accs = access_cache.computeIfAbsent(lid.longValue(),
+         (l) -> new ConcurrentHashMap<>());
+   BurlUserAccess rslt = accs.get(email);
+   if (rslt != null) return rslt;
+   
+   long gen = access_generation.get();
+   
    String q1 = "SELECT * FROM BurlUserAccess WHERE email = $1 AND libraryid = $2";
    
    JSONObject jobj = sql_database.sqlQuery1(q1,email,lid);
-   if (jobj == null) return BurlUserAccess.NONE;
-   ControlAccess acc = new ControlAccess(jobj);
-   return acc.getAccessLevel();
+   if (jobj == null) rslt = BurlUserAccess.NONE;
+   else {
+      ControlAccess acc = new ControlAccess(jobj);
+      rslt = acc.getAccessLevel();
+    }
+   
+   // a concurrent setUserAccess wins
+   BurlUserAccess prior = accs.putIfAbsent(email,rslt);
+   if (prior == null && access_generation.get() != gen) {
+      // removed while we were looking; don't keep what we read
+      accs.remove(email,rslt);
+    }
+   
+   return (prior == null ? rslt : prior);
 }
 
 
@@ -361,6 +493,10 @@ ControlStorage(ControlMain ctrl)
    if (acc != BurlUserAccess.NONE) {
       sql_database.sqlUpdate(q2,email,lid,acc);
     }
+   
+   if (email != null && lid != null && acc != null) {
+      access_cache.computeIfAbsent(lid.longValue(),(l) -> new ConcurrentHashMap<>()).put(email,acc);
+    }
 }
 
 
@@ -413,6 +549,27 @@ ControlStorage(ControlMain ctrl)
 }
 
 
+/**
+ *      Mark a set of sessions as used now
+ **/
+
+void touchSessions(Collection<String> sids)
+{
+   List<String> batch = new ArrayList<>(sids);
+   for (int i = 0; i < batch.size(); i += SESSION_FLUSH_BATCH) {
+      List<String> part = batch.subList(i,Math.min(batch.size(),i + SESSION_FLUSH_BATCH));
+      StringBuffer buf = new StringBuffer();
+      for (int j = 0; j < part.size(); ++j) {
+         if (j > 0) buf.append(", ");
+         buf.append("$" + (j+1));
+       }
+      String q = "UPDATE BurlSession SET last_used = CURRENT_TIMESTAMP " +
+         "WHERE session IN ( " + buf + " )";
+      sql_database.sqlUpdate(q,part.toArray());
+    }
+}
+
+
 ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid) 
 {
    if (sid == null || sid.isEmpty()) return null;
@@ -451,6 +608,13 @@ ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid)
       // check if we need to add a new field to the table and then update the fields
       // by doing ALTER TABLE ADD (or REMOVE) for each field
       // then update RepoStores with new field set
+      if (tbl.optInt("fold_version",0) < FOLD_VERSION) {
+         if (!setupFoldColumns(repo)) return false;
+         String q6 = "UPDATE BurlRepoStores SET fold_version = $1 WHERE name = $2";
+         if (sql_database.sqlUpdate(q6,FOLD_VERSION,kname) != 1) {
+            IvyLog.logE("BURL","Problem recording search column setup for " + rname);
+          }
+       }
     }
    else {
       StringBuffer flds = new StringBuffer();
@@ -461,14 +625,19 @@ ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid)
          if (dflt == null) dflt = "NULL";
          else dflt = "'" + dflt + "'";
          q2 += ", " + brc.getFieldName() + " text DEFAULT " + dflt;
+         String fdflt = brc.getDefault();
+         if (fdflt == null) fdflt = "NULL";
+         else fdflt = "'" + BurlUtil.foldString(fdflt) + "'";
+         q2 += ", " + getFoldName(brc.getFieldName()) + " text DEFAULT " + fdflt;
          if (!flds.isEmpty()) flds.append(",");
          flds.append(brc.getFieldName());
        }
       q2 += ")";
-      String q3 = "INSERT INTO BurlRepoStores ( name, fields ) VALUES ( $1, $2 )";
+      String q3 = "INSERT INTO BurlRepoStores ( name, fields, fold_version ) " +
+         "VALUES ( $1, $2, $3 )";
       int ct = sql_database.sqlUpdate(q2); 
       if (ct < 0) return false;
-      sql_database.sqlUpdate(q3,kname,flds.toString());
+      sql_database.sqlUpdate(q3,kname,flds.toString(),FOLD_VERSION);
       BurlRepoColumn isbnfld = repo.getOriginalIsbnField();
       if (isbnfld != null) {
          String q4 = "CREATE INDEX " + rname + "Isbn ON " + rname + " ( " + isbnfld.getFieldName() + " )";
@@ -480,17 +649,137 @@ ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid)
          sql_database.sqlUpdate(q5);
        }
     }
+   
+   repo_statements.put(kname,new RepoStatements(repo));
          
    return true;
 }
 
 
+/**
+ *      Each data column has a shadow column holding its folded form (see
+ *      BurlUtil.foldString) that is used for searching and for case
+ *      insensitive sorting.  Older tables get these columns here, once, as
+ *      recorded by fold_version in BurlRepoStores.  The folding is done in
+ *      Java, so the values are filled in batches of rows in id order.
+ **/
+
+private boolean setupFoldColumns(BurlRepo repo)
+{
+   String kname = repo.getNameKey();
+   String rname = "BurlRepo_" + kname;
+   
+   List<String> flds = new ArrayList<>();
+   StringBuffer alter = new StringBuffer();
+   for (BurlRepoColumn brc : repo.getColumns()) {
+      String fld = brc.getFieldName();
+      String fdflt = brc.getDefault();
+      if (fdflt == null) fdflt = "NULL";
+      else fdflt = "'" + BurlUtil.foldString(fdflt) + "'";
+      if (!alter.isEmpty()) alter.append(",");
+      alter.append(" ADD COLUMN IF NOT EXISTS " + getFoldName(fld) + " text DEFAULT " + fdflt);
+      flds.add(fld);
+    }
+   if (flds.isEmpty()) return true;
+   
+   // one statement so the table is locked once
+   String q1 = "ALTER TABLE " + rname + alter;
+   if (sql_database.sqlUpdate(q1) < 0) return false;
+   
+   IvyLog.logI("BURL","Setting up search columns for " + rname);
+   String q2 = "SELECT burl_id, " + String.join(", ",flds) + " FROM " + rname +
+      " WHERE burl_id > $1 ORDER BY burl_id LIMIT " + FOLD_BATCH_SIZE;
+   Number last = 0;
+   for ( ; ; ) {
+      List<JSONObject> rows = sql_database.sqlQueryN(q2,last);
+      if (rows == null) return false;
+      if (rows.isEmpty()) break;
+      if (!updateFoldBatch(rname,flds,rows)) return false;
+      last = rows.get(rows.size()-1).getNumber("burl_id");
+    }
+   
+   return true;
+}
+
+
+/**
+ *      Set the shadow columns of a batch of rows with a single UPDATE
+ *      joined against a VALUES list
+ **/
+
+private boolean updateFoldBatch(String rname,List<String> flds,List<JSONObject> rows)
+{
+   StringBuffer sets = new StringBuffer();
+   StringBuffer cols = new StringBuffer("burl_id");
+   for (String fld : flds) {
+      String ffld = getFoldName(fld);
+      if (!sets.isEmpty()) sets.append(", ");
+      sets.append(ffld + " = v." + ffld);
+      cols.append(", " + ffld);
+    }
+   
+   StringBuffer vals = new StringBuffer();
+   List<Object> args = new ArrayList<>();
+   for (JSONObject row : rows) {
+      if (!vals.isEmpty()) vals.append(", ");
+      args.add(row.getNumber("burl_id"));
+      vals.append("( $" + args.size());
+      for (String fld : flds) {
+         args.add(BurlUtil.foldString(row.optString(fld,null)));
+         vals.append(", $" + args.size() + "::text");
+       }
+      vals.append(" )");
+    }
+   
+   String q1 = "UPDATE " + rname + " AS t SET " + sets + " FROM ( VALUES " + vals +
+      " ) AS v ( " + cols + " ) WHERE t.burl_id = v.burl_id";
+   return sql_database.sqlUpdate(q1,args.toArray()) >= 0;
+}
+
+
+private static String getFoldName(String fld)
+{
+   return fld + FOLD_COLUMN_SUFFIX;
+}
+
+
+/**
+ *      Add the values of the shadow columns for a set of field values
+ **/
+
+private static Map<String,String> addFoldedValues(Map<String,String> values)
+{
+   Map<String,String> rslt = new LinkedHashMap<>(values);
+   for (Map.Entry<String,String> ent : values.entrySet()) {
+      rslt.put(getFoldName(ent.getKey()),BurlUtil.foldString(ent.getValue()));
+    }
+   return rslt;
+}
+
+
+/**
+ *      Return UPDATE for the given fields ($1...) of the row given by the
+ *      following parameter
+ **/
+
+private static String getUpdateQuery(String rname,Map<String,String> values)
+{
+   StringBuffer buf = new StringBuffer();
+   int ct = 0;
+   for (String fld : values.keySet()) {
+      if (ct > 0) buf.append(", ");
+      ++ct;
+      buf.append(fld + " = $" + ct);
+    }
+   ++ct;
+   return "UPDATE " + rname + " SET " + buf + " WHERE burl_id = $" + ct;
+}
+
+
 @Override public List<Number> dataFieldSearch(BurlRepo repo,String fld,Object val) 
 {
    List<Number> ids = new ArrayList<>();
-   String kname = repo.getNameKey(); 
-   String rname = "BurlRepo_" + kname;
-   String q1 = "SELECT burl_id FROM " + rname + " WHERE " + fld + " = $1 ORDER BY burl_id";
+   String q1 = getStatements(repo).getFieldSearch(fld);
    
    List<JSONObject> rslts = sql_database.sqlQueryN(q1,val);
    for (JSONObject rslt : rslts) {
@@ -510,26 +799,44 @@ ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid)
    
    sql_database.sqlUpdate(q1);
    sql_database.sqlUpdate(q2,kname);
+   row_counts.remove(kname);
+   repo_statements.remove(kname);
 }
 
 
 
-@Override public BurlCountIter<JSONObject> getAllDataRows(BurlRepo repo,
+@Override public BurlCountIter<BurlRowData> getAllDataRows(BurlRepo repo,
+      BurlRepoColumn sort,boolean invert)
+{
+   return getDataRows(repo,null,sort,invert);
+}
+
+
+@Override public BurlCountIter<BurlRowData> getDataRows(BurlRepo repo,JSONObject filter,
       BurlRepoColumn sort,boolean invert)
 {
 // String orderby = (sort == null ? "burl_id" : sort.getFieldName());
 // String desc = (invert ? " DESC" : "");
-   String orderby = getOrderBy(sort,invert);
    String kname = repo.getNameKey();
    String rname = "BurlRepo_" + kname;
-   String q1 = "SELECT * FROM " + rname + orderby;
-   String q2 = "SELECT COUNT(burl_id) FROM " + rname;
+   List<Object> args = new ArrayList<>();
+   String where = getFilterWhere(repo,filter,args);
+   String q1 = null;
+   if (where.isEmpty()) q1 = getStatements(repo).getSelectAll(sort,invert);
+   else q1 = "SELECT * FROM " + rname + where + getOrderBy(sort,invert);
+   Object [] argarr = args.toArray();
 
    try {
-      ResultSet rs = sql_database.executeQueryStatement(q1);
-      JSONObject cntj = sql_database.sqlQuery1(q2);
-      int cnt = cntj.getInt("count");
-      return new ResultSetIterator(rs,cnt); 
+      ResultSet rs = sql_database.executeQueryStatement(q1,argarr);
+      if (where.isEmpty()) {
+         return new ResultSetIterator(repo,q1,rs,getTableRowCount(repo),true);
+       }
+      // only count far enough to know there are more rows than a user will page
+      String q2 = "SELECT COUNT(*) FROM ( SELECT burl_id FROM " + rname + where +
+         " LIMIT " + (ROW_COUNT_LIMIT+1) + " ) AS burl_matches";
+      JSONObject cntj = sql_database.sqlQuery1(q2,argarr);
+      int cnt = (cntj == null ? 0 : cntj.getInt("count"));
+      return new ResultSetIterator(repo,q1,rs,cnt,cnt <= ROW_COUNT_LIMIT); 
     }
    catch (SQLException e) {
       IvyLog.logE("BURL","SQL problem",e);
@@ -538,84 +845,431 @@ ControlSession checkSession(BowerSessionStore<ControlSession> bss,String sid)
 }
 
 
-private String getOrderBy(BurlRepoColumn sort,boolean invert)
+/**
+ *      Keyset paging: rows come ordered by the sort key and then burl_id,
+ *      and the next page starts after the last (key,id) pair, so no result
+ *      set is held between pages.  Null keys go last (first if inverted)
+ *      as in getOrderBy; a null afterkey means the last row had one.
+ **/
+
+@Override public List<BurlRowData> getDataPage(BurlRepo repo,JSONObject filter,
+      BurlRepoColumn sort,boolean invert,String afterkey,Number afterid,int count)
+{
+   String kname = repo.getNameKey();
+   String rname = "BurlRepo_" + kname;
+   List<Object> args = new ArrayList<>();
+   String where = getFilterWhere(repo,filter,args);
+   String dir = (invert ? " DESC" : "");
+   String cmp = (invert ? " < " : " > ");
+   
+   String key = null;
+   String orderby = null;
+   String after = null;
+   if (sort == null) {
+      key = "''";
+      orderby = " ORDER BY burl_id" + dir;
+      if (afterid != null) {
+         args.add(afterid);
+         after = "burl_id" + cmp + "$" + args.size();
+       }
+    }
+   else {
+      key = getSortExpression(sort);
+      String isnull = "( " + key + " ) IS NULL";
+      String nkey = "COALESCE(" + key + ",'')";
+      orderby = " ORDER BY " + isnull + dir + ", " + nkey + dir + ", burl_id" + dir;
+      if (afterid != null) {
+         args.add(afterkey == null);
+         int nidx = args.size();
+         args.add(afterkey == null ? "" : afterkey);
+         int kidx = args.size();
+         args.add(afterid);
+         after = "( " + isnull + ", " + nkey + ", burl_id )" + cmp +
+            "( $" + nidx + ", $" + kidx + ", $" + args.size() + " )";
+       }
+    }
+   if (after != null) {
+      if (where.isEmpty()) where = " WHERE " + after;
+      else where += " AND " + after;
+    }
+   
+   String q1 = "SELECT *, " + key + " AS burl_sort_key FROM " + rname + where +
+      orderby + " LIMIT " + count;
+   
+   return queryDataRows(repo,q1,args.toArray());
+}
+
+
+@Override public int getDataCount(BurlRepo repo,JSONObject filter)
+{
+   String kname = repo.getNameKey();
+   String rname = "BurlRepo_" + kname;
+   List<Object> args = new ArrayList<>();
+   String where = getFilterWhere(repo,filter,args);
+   if (where.isEmpty()) return getTableRowCount(repo);
+   
+   String q1 = "SELECT COUNT(burl_id) FROM " + rname + where;
+   JSONObject cntj = sql_database.sqlQuery1(q1,args.toArray());
+   if (cntj == null) return 0;
+   
+   return cntj.getInt("count");
+}
+
+
+/**
+ *      Return the number of rows in a repository table.  This is cached
+ *      and kept current as rows are added and removed; the cached value
+ *      is checked against the database every ROW_COUNT_RECONCILE ms in
+ *      case something else changed the table.
+ **/
+
+private int getTableRowCount(BurlRepo repo)
+{
+   String kname = repo.getNameKey();
+   RowCount rc = row_counts.get(kname);
+   if (rc != null && !rc.needsCheck()) return rc.getCount();
+   
+   String rname = "BurlRepo_" + kname;
+   String q1 = "SELECT COUNT(burl_id) FROM " + rname;
+   JSONObject cntj = sql_database.sqlQuery1(q1);
+   if (cntj == null) return (rc == null ? 0 : rc.getCount());
+   int cnt = cntj.getInt("count");
+   if (rc == null) {
+      row_counts.putIfAbsent(kname,new RowCount(cnt));
+    }
+   else if (rc.setCount(cnt)) {
+      IvyLog.logD("BURL","Row count for " + kname + " corrected to " + cnt);
+    }
+   
+   return cnt;
+}
+
+
+private void adjustRowCount(BurlRepo repo,int delta)
+{
+   if (delta == 0) return;
+   RowCount rc = row_counts.get(repo.getNameKey());
+   if (rc != null) rc.adjust(delta);
+}
+
+
+/**
+ *      Translate a filter into a WHERE clause with the same meaning as
+ *      EntityFilter: every token of a value must be a substring of the
+ *      folded field (its shadow column); for "all" some one field must hold all the
+ *      tokens; an array matches if any element matches.  Values are passed
+ *      as parameters and added to args.
+ **/
+
+private String getFilterWhere(BurlRepo repo,JSONObject filter,List<Object> args)
+{
+   if (filter == null) return "";
+
+   List<String> conds = new ArrayList<>();
+   for (String key : filter.keySet()) {
+      Object match = filter.opt(key);
+      List<String> flds = new ArrayList<>();
+      boolean all = key.equals("all");
+      if (all) {
+         for (BurlRepoColumn brc : repo.getColumns()) {
+            flds.add(brc.getFieldName());
+          }
+       }
+      else {
+         BurlRepoColumn brc = repo.getColumn(key);
+         if (brc == null) continue;
+         flds.add(brc.getFieldName());
+       }
+      String cond = null;
+      if (match instanceof JSONArray) {
+         JSONArray arr = (JSONArray) match;
+         List<String> alts = new ArrayList<>();
+         for (int i = 0; i < arr.length(); ++i) {
+            alts.add(getMatchCondition(flds,all,arr.optString(i),args));
+          }
+         cond = (alts.isEmpty() ? "FALSE" : "( " + String.join(" OR ",alts) + " )");
+       }
+      else if (match instanceof String) {
+         cond = getMatchCondition(flds,all,(String) match,args);
+       }
+      if (cond != null) conds.add(cond);
+    }
+
+   if (conds.isEmpty()) return "";
+
+   return " WHERE " + String.join(" AND ",conds);
+}
+
+
+private String getMatchCondition(List<String> flds,boolean all,String key,List<Object> args)
+{
+   List<String> toks = new ArrayList<>();
+   for (StringTokenizer tok = new StringTokenizer(BurlUtil.foldString(key)); tok.hasMoreTokens(); ) {
+      String t = tok.nextToken();
+      t = t.replace("\\","\\\\").replace("%","\\%").replace("_","\\_");
+      toks.add("%" + t + "%");
+    }
+
+   List<String> alts = new ArrayList<>();
+   for (String fld : flds) {
+      if (toks.isEmpty()) {
+         // no tokens: any field matches, but "all" needs a nonempty one
+         if (!all) return "TRUE";
+         alts.add("COALESCE(" + fld + ",'') <> ''");
+         continue;
+       }
+      List<String> parts = new ArrayList<>();
+      for (String t : toks) {
+         args.add(t);
+         parts.add(getFoldName(fld) + " LIKE $" + args.size());
+       }
+      alts.add("( " + String.join(" AND ",parts) + " )");
+    }
+
+   if (alts.isEmpty()) return "FALSE";
+
+   return "( " + String.join(" OR ",alts) + " )";
+}
+
+
+private static String getOrderBy(BurlRepoColumn sort,boolean invert)
 {
    String pfx = " ORDER BY ";
    String sfx = (invert ? " DESC" : "");
    String body = "burl_id";
-   if (sort != null) {
-      BurlSortType sorttype = sort.getSortType();
-      switch (sorttype) {
-         case NORMAL :
-            body = sort.getFieldName();
-            break;
-         case NOCASE :
-            body = "LOWER(" + sort.getFieldName() +")";
-            break;
-         case TITLE :
-            body = "TRIM(LEADING 'a ' FROM TRIM(LEADING 'an ' FROM " +
-               "TRIM(LEADING 'the ' FROM LOWER(" +
-               sort.getFieldName() + "))))";
-            break;
-       }
-    }
+   if (sort != null) body = getSortExpression(sort);
    
    return pfx + body + sfx;
 }
 
 
+private static String getSortExpression(BurlRepoColumn sort)
+{
+   String body = sort.getFieldName();
+   BurlSortType sorttype = sort.getSortType();
+   switch (sorttype) {
+      case NORMAL :
+         break;
+      case NOCASE :
+         body = getFoldName(sort.getFieldName());
+         break;
+      case TITLE :
+         body = "TRIM(LEADING 'a ' FROM TRIM(LEADING 'an ' FROM " +
+            "TRIM(LEADING 'the ' FROM " +
+            getFoldName(sort.getFieldName()) + ")))";
+         break;
+    }
+   
+   return body;
+}
 
-@Override public JSONObject getDataRow(BurlRepo repo,Number rid)
+
+
+private RepoStatements getStatements(BurlRepo repo)
+{
+   return repo_statements.computeIfAbsent(repo.getNameKey(),(k) -> new RepoStatements(repo));
+}
+
+
+
+@Override public BurlRowData getDataRow(BurlRepo repo,Number rid)
 {
    if (rid == null) return null;
    
-   String kname = repo.getNameKey();
-   String rname = "BurlRepo_" + kname;
-   String q1 = "SELECT * FROM " + rname + " WHERE burl_id = $1";
+   String q1 = getStatements(repo).getSelectRow();
+   
+   List<BurlRowData> rows = queryDataRows(repo,q1,rid);
+   if (rows == null || rows.isEmpty()) return null;
    
-   return sql_database.sqlQuery1(q1,rid);
+   return rows.get(0);
+}
+
+
+/**
+ *      Run a query returning data rows and decode all of them
+ **/
+
+private List<BurlRowData> queryDataRows(BurlRepo repo,String q,Object... args)
+{
+   List<BurlRowData> rslt = new ArrayList<>();
+   ResultSet rs = null;
+   try {
+      rs = sql_database.executeQueryStatement(q,args);
+      RowDecoder dec = new RowDecoder(repo,rs.getMetaData());
+      while (rs.next()) {
+         rslt.add(dec.decode(rs));
+       }
+      sql_database.recordRows(q,rslt.size());
+    }
+   catch (SQLException e) {
+      IvyLog.logE("BURL","SQL problem",e);
+      rslt = null;
+    }
+   finally {
+      closeResultSet(rs);
+    }
+   
+   return rslt;
+}
+
+
+private static void closeResultSet(ResultSet rs)
+{
+   if (rs == null) return;
+   try {
+      Statement st = rs.getStatement();
+      rs.close();
+      if (st != null) st.close();
+    }
+   catch (SQLException e) {
+      IvyLog.logE("BURL","Problem closing result set",e);
+    }
 }
 
 
 @Override public Number addDataRow(BurlRepo repo)
 {
-   String fld = null;
-   for (BurlRepoColumn brc : repo.getColumns()) {
-      String dflt = brc.getDefault();
-      if (dflt == null || dflt.equals("NULL")) {
-         fld = brc.getFieldName();
-         break;
+   String q1 = getStatements(repo).getInsertRow();
+   JSONObject jo = sql_database.sqlQuery1(q1);
+   if (jo == null) return null;
+   adjustRowCount(repo,1);
+   return jo.getNumber("burl_id");
+}
+
+
+/**
+ *      Rows are inserted in batches limited by row count and by the number
+ *      of parameters.  If a batch fails, the rows already inserted by this
+ *      call are deleted again and null is returned.
+ **/
+
+@Override public List<Number> addDataRows(BurlRepo repo,List<Map<String,String>> values)
+{
+   List<Number> rslt = new ArrayList<>();
+   int i = 0;
+   while (i < values.size()) {
+      List<Map<String,String>> batch = new ArrayList<>();
+      Set<String> flds = new HashSet<>();
+      while (i < values.size() && batch.size() < NEW_ROW_BATCH_SIZE) {
+         Map<String,String> vals = addFoldedValues(values.get(i));
+         Set<String> nflds = new HashSet<>(flds);
+         nflds.addAll(vals.keySet());
+         // each row takes its id and a value or DEFAULT for each field
+         if (!batch.isEmpty() && (batch.size()+1) * (nflds.size()+1) > SQL_MAX_PARAMETERS) break;
+         batch.add(vals);
+         flds = nflds;
+         ++i;
+       }
+      List<Number> ids = insertDataRows(repo,batch);
+      if (ids.size() != batch.size()) {
+         IvyLog.logE("BURL","Problem inserting rows into " + repo.getNameKey());
+         removeDataRows(repo,rslt);
+         return null;
        }
+      rslt.addAll(ids);
     }
+   adjustRowCount(repo,rslt.size());
+   return rslt;
+}
+
+
+private void removeDataRows(BurlRepo repo,List<Number> ids)
+{
+   String rname = "BurlRepo_" + repo.getNameKey();
+   for (int i = 0; i < ids.size(); i += NEW_ROW_BATCH_SIZE) {
+      List<Number> part = ids.subList(i,Math.min(ids.size(),i + NEW_ROW_BATCH_SIZE));
+      StringBuffer buf = new StringBuffer();
+      for (int j = 0; j < part.size(); ++j) {
+         if (j > 0) buf.append(", ");
+         buf.append("$" + (j+1));
+       }
+      String q = "DELETE FROM " + rname + " WHERE burl_id IN ( " + buf + " )";
+      sql_database.sqlUpdate(q,part.toArray());
+    }
+}
+
+
+/**
+ *      Insert a batch of rows with one statement.  Columns not given for
+ *      a row get their DEFAULT.  The ids are taken from the serial sequence
+ *      first and inserted explicitly, so the result is in VALUES order.
+ **/
+
+private List<Number> insertDataRows(BurlRepo repo,List<Map<String,String>> values)
+{
+   List<Number> rslt = new ArrayList<>();
+   if (values.isEmpty()) return rslt;
+   
    String kname = repo.getNameKey();
    String rname = "BurlRepo_" + kname;
-   String q1 = "INSERT INTO " + rname + " ( burl_id, " + fld + ") VALUES ( DEFAULT, $1 )";
-   String q2 = "SELECT burl_id FROM " + rname + " WHERE " + fld + " = $1";
-   String q3 = "UPDATE " + rname + " SET " + fld + " = NULL WHERE burl_id = $1";
-   String marker = BurlUtil.randomString(NEW_ROW_MARKER_LENGTH);
-   sql_database.sqlUpdate(q1,marker);
-   JSONObject jo = sql_database.sqlQuery1(q2,marker);
-   Number id = jo.getNumber("burl_id");
-   sql_database.sqlUpdate(q3,id);
-   return id;
+   
+   String q0 = "SELECT nextval(pg_get_serial_sequence('" + rname + "','burl_id')) AS burl_id " +
+         "FROM generate_series(1,$1)";
+   List<JSONObject> ids = sql_database.sqlQueryN(q0,values.size());
+   if (ids == null || ids.size() != values.size()) return rslt;
+   
+   Set<String> flds = new LinkedHashSet<>();
+   for (Map<String,String> vals : values) {
+      flds.addAll(vals.keySet());
+    }
+   flds.remove("burl_id");
+   
+   StringBuffer buf = new StringBuffer();
+   buf.append("INSERT INTO " + rname + " ( burl_id");
+   for (String fld : flds) buf.append(", " + fld);
+   buf.append(" ) VALUES ");
+   List<Object> args = new ArrayList<>();
+   for (int i = 0; i < values.size(); ++i) {
+      Map<String,String> vals = values.get(i);
+      Number id = ids.get(i).getNumber("burl_id");
+      if (i > 0) buf.append(", ");
+      args.add(id);
+      buf.append("( $" + args.size());
+      for (String fld : flds) {
+         buf.append(", ");
+         if (vals.containsKey(fld)) {
+            args.add(vals.get(fld));
+            buf.append("$" + args.size());
+          }
+         else {
+            buf.append("DEFAULT");
+          }
+       }
+      buf.append(" )");
+      rslt.add(id);
+    }
+   
+   int ct = sql_database.sqlUpdate(buf.toString(),args.toArray());
+   if (ct != values.size()) rslt.clear();
+   
+   return rslt;
 }
 
  
 @Override public void updateDataRow(BurlRepo repo,Number rid,String fld,String val)
 {
-   String kname = repo.getNameKey();
-   String rname = "BurlRepo_" + kname;
-   String q1 = "UPDATE " + rname + " SET " + fld + " = $1 WHERE burl_id = $2";
-   sql_database.sqlUpdate(q1,val,rid);
+   String q1 = getStatements(repo).getUpdateField(fld);
+   sql_database.sqlUpdate(q1,val,BurlUtil.foldString(val),rid);
+}
+
+
+@Override public void updateDataRow(BurlRepo repo,Number rid,Map<String,String> values)
+{
+   if (values == null || values.isEmpty()) return;
+   
+   Map<String,String> upds = addFoldedValues(values);
+   String q1 = getStatements(repo).getUpdateFields(upds);
+   List<Object> args = new ArrayList<>(upds.values());
+   args.add(rid);
+   sql_database.sqlUpdate(q1,args.toArray());
 }
 
 
 @Override public void removeDataRow(BurlRepo repo,Number rid)
 {
-   String kname = repo.getNameKey(); 
-   String rname = "BurlRepo_" + kname;
-   String q1 = "DELETE FROM " + rname + " WHERE burl_id = $1";
-   sql_database.sqlUpdate(q1,rid);
+   String q1 = getStatements(repo).getDeleteRow();
+   int ct = sql_database.sqlUpdate(q1,rid);
+   if (ct > 0) adjustRowCount(repo,-ct);
 }
 
 
@@ -680,18 +1334,26 @@ private String getOrderBy(BurlRepoColumn sort,boolean invert)
 /*                                                                              */
 /********************************************************************************/
 
-private class ResultSetIterator implements BurlCountIter<JSONObject> {
+private class ResultSetIterator implements BurlCountIter<BurlRowData> {
    
+   private BurlRepo for_repo;
+   private String query_text;
+   private RowDecoder row_decoder;
    private ResultSet result_set;
    private boolean next_done;
    private int row_count;
    private int row_index;
+   private boolean count_exact;
    
-   ResultSetIterator(ResultSet rs,int ct) {
+   ResultSetIterator(BurlRepo repo,String q,ResultSet rs,int ct,boolean exact) {
+      for_repo = repo;
+      query_text = q;
+      row_decoder = null;
       result_set = rs;
       next_done = false;
       row_count = ct;
       row_index = 0;
+      count_exact = exact;
     }
    
    @Override public boolean hasNext() {
@@ -699,6 +1361,11 @@ private class ResultSetIterator implements BurlCountIter<JSONObject> {
       try {
          boolean fg = result_set.next();
          if (fg) next_done = true;
+         else if (!count_exact) {
+            // a bounded count becomes exact once we reach the end
+            row_count = row_index;
+            count_exact = true;
+          }
          return fg;
        }
       catch (SQLException e) {
@@ -707,7 +1374,7 @@ private class ResultSetIterator implements BurlCountIter<JSONObject> {
        }
     }
    
-   @Override public JSONObject next() {
+   @Override public BurlRowData next() {
       if (!next_done) {
          if (!hasNext()) return null;
        }
@@ -715,18 +1382,234 @@ private class ResultSetIterator implements BurlCountIter<JSONObject> {
       
       ++row_index;
       
-      return sql_database.getJsonFromResultSet(result_set); 
+      try {
+         if (row_decoder == null) {
+            row_decoder = new RowDecoder(for_repo,result_set.getMetaData());
+          }
+         return row_decoder.decode(result_set);
+       }
+      catch (SQLException e) {
+         IvyLog.logE("REPO","SQL problem decoding row",e);
+         return null;
+       }
     }
    
    
-   @Override public int getRowCount()           { return row_count; }
+   @Override public int getRowCount() {
+      return Math.max(row_count,row_index);
+    }
    
    @Override public int getIndex()              { return row_index; }
    
+   @Override public boolean isCountExact()      { return count_exact; }
+   
+   @Override public void close() {
+      if (result_set == null) return;
+      closeResultSet(result_set);
+      result_set = null;
+      sql_database.recordRows(query_text,row_index);
+    }
+   
 }       // end of inner class ResulSetIterator
 
 
 
+/********************************************************************************/
+/*                                                                              */
+/*      Decoding data rows                                                      */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Map the columns of a result set to repository columns once, then
+ *      read each row by ordinal into an array indexed by column number.
+ *      Other columns (e.g. the folded shadows) are skipped.
+ **/
+
+private static class RowDecoder {
+   
+   private int [] column_index;                 // result ordinal -> column number
+   private int num_columns;
+   private int id_ordinal;
+   private int key_ordinal;
+   
+   RowDecoder(BurlRepo repo,ResultSetMetaData md) throws SQLException {
+      Map<String,Integer> colmap = new HashMap<>();
+      num_columns = 0;
+      for (BurlRepoColumn brc : repo.getColumns()) {
+         colmap.put(brc.getFieldName().toLowerCase(),brc.getNumber());
+         num_columns = Math.max(num_columns,brc.getNumber()+1);
+       }
+      
+      int n = md.getColumnCount();
+      column_index = new int[n+1];
+      id_ordinal = 0;
+      key_ordinal = 0;
+      for (int i = 1; i <= n; ++i) {
+         String nm = md.getColumnLabel(i).toLowerCase();
+         Integer no = colmap.get(nm);
+         column_index[i] = (no == null ? -1 : no);
+         if (nm.equals("burl_id")) id_ordinal = i;
+         else if (nm.equals("burl_sort_key")) key_ordinal = i;
+       }
+    }
+   
+   BurlRowData decode(ResultSet rs) throws SQLException {
+      String [] vals = new String[num_columns];
+      for (int i = 1; i < column_index.length; ++i) {
+         int no = column_index[i];
+         if (no >= 0) vals[no] = rs.getString(i);
+       }
+      Number id = null;
+      if (id_ordinal > 0) {
+         Object o = rs.getObject(id_ordinal);
+         if (o instanceof Number) id = (Number) o;
+       }
+      String key = (key_ordinal > 0 ? rs.getString(key_ordinal) : null);
+      
+      return new RowData(id,vals,key);
+    }
+   
+}       // end of inner class RowDecoder
+
+
+
+private static class RowData implements BurlRowData {
+   
+   private Number row_id;
+   private String [] row_values;
+   private String sort_key;
+   
+   RowData(Number id,String [] vals,String key) {
+      row_id = id;
+      row_values = vals;
+      sort_key = key;
+    }
+   
+   @Override public Number getRowId()           { return row_id; }
+   @Override public String [] getValues()       { return row_values; }
+   @Override public String getSortKey()         { return sort_key; }
+   
+}       // end of inner class RowData
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Cached table row count                                                  */
+/*                                                                              */
+/********************************************************************************/
+
+private static class RowCount {
+   
+   private int row_count;
+   private long check_time;
+   
+   RowCount(int ct) {
+      row_count = ct;
+      check_time = System.currentTimeMillis();
+    }
+   
+   synchronized int getCount()                  { return row_count; }
+   
+   synchronized void adjust(int delta)          { row_count += delta; }
+   
+   synchronized boolean needsCheck() {
+      return System.currentTimeMillis() - check_time > ROW_COUNT_RECONCILE;
+    }
+   
+   synchronized boolean setCount(int ct) {
+      boolean chng = (ct != row_count);
+      row_count = ct;
+      check_time = System.currentTimeMillis();
+      return chng;
+    }
+   
+}       // end of inner class RowCount
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Per-library statements                                                  */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      The SQL for the per-row operations of a library, built once when
+ *      the library is opened.  Using the identical text for every call lets
+ *      the JDBC driver reuse its server-side prepared statement rather than
+ *      parsing and planning the statement again.
+ **/
+
+private static class RepoStatements {
+   
+   private String table_name;
+   private String select_row;
+   private String insert_row;
+   private String delete_row;
+   private Map<String,String> update_field;
+   private Map<String,String> field_search;
+   private Map<String,String> select_all;
+   private Map<String,String> update_fields;
+   
+   RepoStatements(BurlRepo repo) {
+      table_name = "BurlRepo_" + repo.getNameKey();
+      select_row = "SELECT * FROM " + table_name + " WHERE burl_id = $1";
+      insert_row = "INSERT INTO " + table_name + " DEFAULT VALUES RETURNING burl_id";
+      delete_row = "DELETE FROM " + table_name + " WHERE burl_id = $1";
+      update_field = new ConcurrentHashMap<>();
+      field_search = new ConcurrentHashMap<>();
+      select_all = new ConcurrentHashMap<>();
+      update_fields = new ConcurrentHashMap<>();
+      
+      getFieldSearch("burl_id");
+      for (boolean invert : new boolean [] { false, true }) {
+         getSelectAll(null,invert);
+         for (BurlRepoColumn brc : repo.getColumns()) {
+            getSelectAll(brc,invert);
+          }
+       }
+      for (BurlRepoColumn brc : repo.getColumns()) {
+         getUpdateField(brc.getFieldName());
+         getFieldSearch(brc.getFieldName());
+       }
+    }
+   
+   String getSelectRow()                        { return select_row; }
+   String getInsertRow()                        { return insert_row; }
+   String getDeleteRow()                        { return delete_row; }
+   
+   String getUpdateField(String fld) {
+      return update_field.computeIfAbsent(fld,(f) -> "UPDATE " + table_name + 
+            " SET " + f + " = $1, " + getFoldName(f) + " = $2 WHERE burl_id = $3");
+    }
+   
+   String getFieldSearch(String fld) {
+      return field_search.computeIfAbsent(fld,(f) -> "SELECT burl_id FROM " + 
+            table_name + " WHERE " + f + " = $1 ORDER BY burl_id");
+    }
+   
+   String getSelectAll(BurlRepoColumn sort,boolean invert) {
+      String key = (sort == null ? "burl_id" : sort.getFieldName()) + (invert ? " DESC" : "");
+      return select_all.computeIfAbsent(key,(k) -> "SELECT * FROM " + table_name + 
+            getOrderBy(sort,invert));
+    }
+   
+   /**
+    *    Update statements for a set of fields are kept by field list; the
+    *    parameters must be given in the iteration order of values.
+    **/
+   
+   String getUpdateFields(Map<String,String> values) {
+      String key = String.join(",",values.keySet());
+      return update_fields.computeIfAbsent(key,(k) -> getUpdateQuery(table_name,values));
+    }
+   
+}       // end of inner class RepoStatements
+
+
+
 
 }	// end of class ControlStorage
 
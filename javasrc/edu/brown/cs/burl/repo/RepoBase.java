@@ -25,18 +25,21 @@ import java.io.PrintWriter;
 import java.io.PushbackReader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.w3c.dom.Element;
 
@@ -68,6 +71,8 @@ private BurlLibrary     for_library;
 private Set<BurlRepoColumn> repo_columns;
 private Map<String,RepoColumn> column_names;
 private Map<String,Number> isbn_lccn_map;
+private RepoTextIndex   text_index;
+private Map<BurlRepoColumn,RepoValueIndex> value_indexes;
 
 private static BurlFieldData field_data;
 
@@ -108,6 +113,8 @@ RepoBase(BurlControl bc,BurlLibrary lib)
    column_names = new HashMap<>();
    
    isbn_lccn_map = null;
+   text_index = null;
+   value_indexes = new HashMap<>();
    
    for (String fieldname : field_data.getAllFields()) {
       addHeader(fieldname);
@@ -323,6 +330,19 @@ protected RepoColumn getUpdateColumn(BurlRepoColumn rc)
 
 @Override public void computeEntry(BurlRepoRow brr,String isbn, 
       BurlBibEntry bib,BurlUpdateMode updmode)
+{
+   brr.startEdit();
+   try {
+      computeEntryFields(brr,isbn,bib,updmode);
+    }
+   finally {
+      brr.commitEdit();
+    }
+}
+
+
+private void computeEntryFields(BurlRepoRow brr,String isbn, 
+      BurlBibEntry bib,BurlUpdateMode updmode)
 {
    String visbn = BurlUtil.getValidISBN(isbn);
    
@@ -490,6 +510,29 @@ private static void addIsbn(String isbn,int len,Set<String> rslt)
 }
 
 
+/**
+ *      Create a set of new rows.  File repositories just create them one
+ *      at a time.
+ **/
+
+@Override public List<BurlRepoRow> newRows(List<String> idnos)
+{
+   List<BurlRepoRow> rslt = new ArrayList<>();
+   for (String idno : idnos) {
+      BurlRepoRow brr = newRow();
+      brr.startEdit();
+      try {
+         setInitialValues(brr,idno);
+       }
+      finally {
+         brr.commitEdit();
+       }
+      rslt.add(brr);
+    }
+   return rslt;
+}
+
+
 /********************************************************************************/
 /*                                                                              */
 /*      Export methods                                                          */
@@ -509,17 +552,15 @@ private static void addIsbn(String isbn,int len,Set<String> rslt)
              }
             break;
          case JSON : 
-            JSONArray rslt = new JSONArray();
-            for (BurlRepoRow brr : rowiter) {
-               JSONObject jo = getJsonForRow(brr);
-               rslt.put(jo);
-             }
-            JSONObject jobj = BurlUtil.buildJson("name",getName(),
-                  "nameKey",getNameKey(),
-                  "data",rslt);
-            pw.println(jobj.toString(2));
+            RepoJsonStream.writeRepository(this,pw,rowiter);
             break;
        }
+      // PrintWriter hides write errors (e.g. a full disk); a partial file
+      // must not be reported as written
+      if (pw.checkError()) {
+         IvyLog.logE("REPO","Problem writing export file " + otf);
+         return false;
+       }
       return true;
     }
    catch (IOException e) {
@@ -651,61 +692,66 @@ JSONObject getJsonForRow(BurlRepoRow rr)
 @Override public void importCSV(String row,BurlUpdateMode updmode,
       Map<BurlRepoColumn,Integer> colmap)
 {
-   try (PushbackReader pr = new PushbackReader(new StringReader(row))) {
-      List<String> items = splitCsv(pr);
-      if (items == null) return; 
-      
-      BurlRepoColumn brc1 = getOriginalIsbnField();
-      String isbn = getCSVEntry(brc1,items,colmap);
-      BurlRepoColumn brc2 = getLccnField();
-      String lccn = getCSVEntry(brc2,items,colmap);
-      String idno = isbn;
-      if (idno == null) idno = lccn; 
-      
-      BurlRepoRow dbrow = null;
-      
-      if (updmode != BurlUpdateMode.NEW) {
-         String burlidstr = getCSVEntry(burlid_column,items,colmap);
-         if (burlidstr != null && !burlidstr.isEmpty()) {
-            try {
-               Number burlid = Integer.getInteger(burlidstr);
-               dbrow = getRowForId(burlid);
+   importCSV(List.of(row),updmode,colmap);
+}
+
+
+@Override public void importCSV(List<String> rows,BurlUpdateMode updmode,
+      Map<BurlRepoColumn,Integer> colmap)
+{
+   List<ImportItem> imports = new ArrayList<>();
+   
+   for (String row : rows) {
+      try (PushbackReader pr = new PushbackReader(new StringReader(row))) {
+         List<String> items = splitCsv(pr);
+         if (items == null) continue; 
+         
+         BurlRepoColumn brc1 = getOriginalIsbnField();
+         String isbn = getCSVEntry(brc1,items,colmap);
+         BurlRepoColumn brc2 = getLccnField();
+         String lccn = getCSVEntry(brc2,items,colmap);
+         String idno = isbn;
+         if (idno == null) idno = lccn; 
+         
+         BurlRepoRow dbrow = null;
+         
+         if (updmode != BurlUpdateMode.NEW) {
+            String burlidstr = getCSVEntry(burlid_column,items,colmap);
+            if (burlidstr != null && !burlidstr.isEmpty()) {
+               try {
+                  Number burlid = Integer.getInteger(burlidstr);
+                  dbrow = getRowForId(burlid);
+                }
+               catch (NumberFormatException e) { }
              }
-            catch (NumberFormatException e) { }
-          }
-         if (dbrow != null) {
-            String ib1 = dbrow.getData(brc1);
-            String ib2 = dbrow.getData(brc2);
-            int ct = 0;
-            if (isbn != null && ib1 != null && !isbn.equals(ib1)) ++ct;
-            if (lccn != null && ib2 != null && !lccn.equals(ib2)) ++ct;
-            if (ct == 2) dbrow = null;
-          }
-         else if (isbn != null) { 
-            if (dbrow == null) {
-               dbrow = getRowForIsbn(isbn);
+            if (dbrow != null) {
+               String ib1 = dbrow.getData(brc1);
+               String ib2 = dbrow.getData(brc2);
+               int ct = 0;
+               if (isbn != null && ib1 != null && !isbn.equals(ib1)) ++ct;
+               if (lccn != null && ib2 != null && !lccn.equals(ib2)) ++ct;
+               if (ct == 2) dbrow = null;
+             }
+            else if (isbn != null) { 
+               if (dbrow == null) {
+                  dbrow = getRowForIsbn(isbn);
+                }
+             }
+            else if (lccn != null) {
+               dbrow = getRowForLccn(lccn);
              }
           }
-         else if (lccn != null) {
-            dbrow = getRowForLccn(lccn);
-          }
-       }
-      if (dbrow == null) {
-         dbrow = newRow();
-         setInitialValues(dbrow,idno);
-       }
-      else if (updmode == BurlUpdateMode.SKIP) {
-         dbrow = null;
-       }
-      
-      if (dbrow != null) {
+         if (dbrow != null && updmode == BurlUpdateMode.SKIP) continue;
+         
          ImportCsvEntry cent = new ImportCsvEntry(items,colmap);
-         computeEntry(dbrow,idno,cent,updmode);
+         imports.add(new ImportItem(dbrow,idno,cent));
+       }
+      catch (IOException e) {   
+         IvyLog.logE("REPO","Problem reading CSV row");
        }
     }
-   catch (IOException e) {   
-      IvyLog.logE("REPO","Problem reading CSV row");
-    }
+   
+   importItems(imports,updmode);
 }
 
 
@@ -822,28 +868,36 @@ protected List<String> splitCsv(PushbackReader fr)
 
 @Override public void importJSON(JSONObject row,BurlUpdateMode updmode)
 {
-   String isbn = null;
-   String lccn = null;
-   BurlRepoColumn brc1 = getOriginalIsbnField();
-   isbn = getJsonEntry(brc1,row);
-   BurlRepoColumn brc2 = getLccnField();
-   lccn = getJsonEntry(brc2,row);
-   String idno = isbn;
-   if (idno == null) idno = lccn;
-   if (idno == null) return;
-   BurlRepoRow dbrow = null;
-   if (isbn != null) { 
-      dbrow = getRowForIsbn(isbn);
-    }
-   else if (lccn != null) {
-      dbrow = getRowForLccn(lccn);
-    }
-   if (dbrow == null) {
-      dbrow = newRow();
-      setInitialValues(dbrow,idno);
-    }
-   ImportJsonEntry jent = new ImportJsonEntry(row);
-   computeEntry(dbrow,idno,jent,updmode);
+   importJSON(List.of(row),updmode);
+}
+
+
+@Override public void importJSON(List<JSONObject> rows,BurlUpdateMode updmode)
+{
+   List<ImportItem> imports = new ArrayList<>();
+   
+   for (JSONObject row : rows) {
+      String isbn = null;
+      String lccn = null;
+      BurlRepoColumn brc1 = getOriginalIsbnField();
+      isbn = getJsonEntry(brc1,row);
+      BurlRepoColumn brc2 = getLccnField();
+      lccn = getJsonEntry(brc2,row);
+      String idno = isbn;
+      if (idno == null) idno = lccn;
+      if (idno == null) continue;
+      BurlRepoRow dbrow = null;
+      if (isbn != null) { 
+         dbrow = getRowForIsbn(isbn);
+       }
+      else if (lccn != null) {
+         dbrow = getRowForLccn(lccn);
+       }
+      ImportJsonEntry jent = new ImportJsonEntry(row);
+      imports.add(new ImportItem(dbrow,idno,jent));
+    }
+   
+   importItems(imports,updmode);
 }
 
 
@@ -870,6 +924,82 @@ private class ImportJsonEntry implements BurlBibEntry {
 
 
 
+/********************************************************************************/
+/*                                                                              */
+/*      Import methods: common                                                  */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Finish a set of imported rows.  Rows that need to be created are
+ *      allocated together using newRows so a database repository can
+ *      insert them with a single statement.  Lines in the batch for the
+ *      same ISBN/LCCN share one new row, as they would have if imported
+ *      one at a time.
+ **/
+
+private void importItems(List<ImportItem> items,BurlUpdateMode updmode)
+{
+   List<String> newids = new ArrayList<>();
+   Map<String,Integer> newindex = new HashMap<>();
+   List<ImportItem> work = new ArrayList<>();
+   
+   for (ImportItem ii : items) {
+      if (ii.getRow() == null) {
+         String idno = ii.getIdNumber();
+         Integer idx = null;
+         if (idno != null && updmode != BurlUpdateMode.NEW) {
+            idx = newindex.get(idno);
+          }
+         if (idx != null) {
+            if (updmode == BurlUpdateMode.SKIP) continue;
+          }
+         else {
+            idx = newids.size();
+            newids.add(idno);
+            if (idno != null) newindex.put(idno,idx);
+          }
+         ii.setNewIndex(idx);
+       }
+      work.add(ii);
+    }
+   
+   List<BurlRepoRow> newrows = newRows(newids);
+   
+   for (ImportItem ii : work) {
+      BurlRepoRow dbrow = ii.getRow();
+      if (dbrow == null) dbrow = newrows.get(ii.getNewIndex());
+      if (dbrow == null) continue;
+      computeEntry(dbrow,ii.getIdNumber(),ii.getEntry(),updmode);
+    }
+}
+
+
+private static class ImportItem {
+
+   private BurlRepoRow import_row;
+   private String id_number;
+   private BurlBibEntry import_entry;
+   private int new_index;
+   
+   ImportItem(BurlRepoRow row,String idno,BurlBibEntry ent) {
+      import_row = row;
+      id_number = idno;
+      import_entry = ent;
+      new_index = -1;
+    }
+   
+   BurlRepoRow getRow()                         { return import_row; }
+   String getIdNumber()                         { return id_number; }
+   BurlBibEntry getEntry()                      { return import_entry; }
+   int getNewIndex()                            { return new_index; }
+   
+   void setNewIndex(int idx)                    { new_index = idx; }
+   
+}       // end of inner class ImportItem
+
+
+
 /********************************************************************************/
 /*                                                                              */
 /*      Print labels                                                            */
@@ -1183,8 +1313,149 @@ private int insertLabelText(StringBuffer buf,int start,String pat,String rep)
 {
    if (filter == null) return getRows();
    
-   return new FilterIter(getRows(filter.getSortField(),
-         filter.invertSort()),filter);
+   BitSet cands = findCandidates(filter);
+   
+   int psize = getParallelFilterSize();
+   if (psize > 0) {
+      int size = (cands != null ? cands.cardinality() : getRows().getRowCount());
+      if (size >= psize) return getRowsParallel(filter,cands);
+    }
+   
+   if (cands != null) {
+      // the counting pass only needs to look at the candidates
+      Supplier<Iterator<BurlRepoRow>> counter = () -> new CandidateIter(cands,false);
+      int size = cands.cardinality();
+      if (filter.getSortField() == null) {
+         return new FilterIter(new CandidateIter(cands,filter.invertSort()),size,
+               filter,null,counter);
+       }
+      BurlRowIter base = getRows(filter.getSortField(),filter.invertSort());
+      return new FilterIter(base,base.getRowCount(),filter,cands,counter);
+    }
+   
+   BurlRowIter base = getRows(filter.getSortField(),filter.invertSort());
+   return new FilterIter(base,base.getRowCount(),filter,null,() -> getRows(null,false));
+}
+
+
+/**
+ *      Number of rows to check above which filters are evaluated in
+ *      parallel.  Only repositories with all rows in memory do this.
+ **/
+
+protected int getParallelFilterSize()           { return 0; }
+
+
+/**
+ *      Filter a large set of in-memory rows using the common fork-join
+ *      pool.  The rows to check are gathered in sort order; the ordered
+ *      parallel stream splits them into chunks, filters each chunk on its
+ *      own thread, and keeps the results in that order.
+ **/
+
+private BurlRowIter getRowsParallel(BurlFilter filter,BitSet cands)
+{
+   Iterator<BurlRepoRow> base = null;
+   if (cands != null && filter.getSortField() == null) {
+      base = new CandidateIter(cands,filter.invertSort());
+    }
+   else {
+      base = getRows(filter.getSortField(),filter.invertSort());
+    }
+   
+   List<BurlRepoRow> rows = new ArrayList<>();
+   while (base.hasNext()) {
+      BurlRepoRow brr = base.next();
+      if (brr == null) continue;
+      if (cands != null && !cands.get(brr.getRowId().intValue())) continue;
+      rows.add(brr);
+    }
+   
+   List<BurlRepoRow> rslt = rows.parallelStream().filter(filter::matches).toList();
+   
+   return new RowIter(rslt);
+}
+
+
+/**
+ *      Plan a filter using the available indexes.  Each index gives the rows
+ *      that can match its part of the filter; these are intersected starting
+ *      with the smallest set, and the filter is then only checked on the
+ *      result.  Returns null if all rows need to be checked.
+ **/
+
+private BitSet findCandidates(BurlFilter filter)
+{
+   JSONObject data = filter.getFilterData();
+   if (data == null) return null;
+   
+   List<BitSet> sets = new ArrayList<>();
+   for (String key : data.keySet()) {
+      Object match = data.opt(key);
+      BitSet rows = null;
+      if (key.equals("all")) {
+         if (text_index != null) rows = text_index.findCandidates(match);
+       }
+      else {
+         BurlRepoColumn brc = getColumn(key);
+         RepoValueIndex vidx = (brc == null ? null : value_indexes.get(brc));
+         if (vidx != null) rows = vidx.findMatches(match);
+       }
+      if (rows != null) sets.add(rows);
+    }
+   if (sets.isEmpty()) return null;
+   
+   sets.sort((s1,s2) -> Integer.compare(s1.cardinality(),s2.cardinality()));
+   BitSet rslt = sets.get(0);
+   for (int i = 1; i < sets.size() && !rslt.isEmpty(); ++i) {
+      rslt.and(sets.get(i));
+    }
+   
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Filter index maintenance                                                */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Enable the text index and the value indexes of columns marked INDEX.
+ *      Repositories that hold their rows in memory call this once loaded
+ *      and then report every change.
+ **/
+
+protected void setupIndexes()
+{
+   text_index = new RepoTextIndex();
+   Map<BurlRepoColumn,RepoValueIndex> vidxs = new HashMap<>();
+   for (BurlRepoColumn brc : getColumns()) {
+      if (brc.isIndexed()) vidxs.put(brc,new RepoValueIndex(brc));
+    }
+   
+   for (BurlRepoRow brr : getRows()) {
+      int id = brr.getRowId().intValue();
+      for (BurlRepoColumn brc : getColumns()) {
+         String v = brr.getData(brc);
+         if (v == null) continue;
+         text_index.update(id,null,v);
+         RepoValueIndex vidx = vidxs.get(brc);
+         if (vidx != null) vidx.update(id,null,v);
+       }
+    }
+   
+   value_indexes = vidxs;
+}
+
+
+protected void updateIndexes(BurlRepoColumn brc,Number id,String oldv,String newv)
+{
+   if (text_index != null) text_index.update(id.intValue(),oldv,newv);
+   RepoValueIndex vidx = value_indexes.get(brc);
+   if (vidx != null) vidx.update(id.intValue(),oldv,newv);
 }
 
 
@@ -1276,22 +1547,47 @@ private class FilterIterOld implements Iterable<BurlRepoRow>, BurlRowIter {
 }       // end of FilterIter
 
 
+/**
+ *      Iterator over the rows matching a filter.  Rows are matched as they
+ *      are requested so the first page comes back without scanning the
+ *      whole repository.  The exact count is computed by a separate pass
+ *      in the background; until that (or the iteration itself) finishes,
+ *      getRowCount returns an estimate based on the rows seen so far.
+ **/
+
 private class FilterIter implements Iterable<BurlRepoRow>, BurlRowIter {
    
-   private List<BurlRepoRow> filtered_rows;
-   private Iterator<BurlRepoRow> row_iter;
+   private Iterator<BurlRepoRow> base_iter;
+   private BurlFilter row_filter;
+   private BitSet candidate_rows;
+   private BurlRepoRow next_row;
    private int row_index;
-   
-   FilterIter(BurlRowIter base,BurlFilter filter) {
-      filtered_rows = new ArrayList<>();
-      while (base.hasNext()) {
-         BurlRepoRow brr = base.next();
-         if (filter.matches(brr)) {
-            filtered_rows.add(brr);
-          }
-       }
-      row_iter = filtered_rows.iterator();
+   private int scan_size;
+   private int rows_scanned;
+   private int rows_matched;
+   private boolean scan_done;
+   private CompletableFuture<Integer> exact_count;
+   private volatile boolean stop_count;
+   
+   FilterIter(Iterator<BurlRepoRow> base,int size,BurlFilter filter,BitSet cands,
+         Supplier<Iterator<BurlRepoRow>> countrows) {
+      base_iter = base;
+      row_filter = filter;
+      candidate_rows = cands;
+      next_row = null;
       row_index = 0;
+      scan_size = size;
+      rows_scanned = 0;
+      rows_matched = 0;
+      scan_done = false;
+      stop_count = false;
+      if (size <= FILTER_SYNC_COUNT_SIZE) {
+         // not worth a thread
+         exact_count = CompletableFuture.completedFuture(countMatches(countrows.get()));
+       }
+      else {
+         exact_count = CompletableFuture.supplyAsync(() -> countMatches(countrows.get()));
+       }
     }
    
    @Override public Iterator<BurlRepoRow> iterator() {
@@ -1299,7 +1595,16 @@ private class FilterIter implements Iterable<BurlRepoRow>, BurlRowIter {
     }
    
    @Override public int getRowCount() {
-      return filtered_rows.size();
+      if (scan_done) return rows_matched;
+      int ct = getBackgroundCount();
+      if (ct >= 0) return ct;
+      if (rows_scanned == 0) return scan_size;
+      long est = ((long) rows_matched) * scan_size / rows_scanned;
+      return (int) Math.max(rows_matched,Math.min(scan_size,est));
+    }
+   
+   @Override public boolean isCountExact() {
+      return scan_done || getBackgroundCount() >= 0;
     }
    
    @Override public int getIndex() {
@@ -1307,18 +1612,101 @@ private class FilterIter implements Iterable<BurlRepoRow>, BurlRowIter {
     }
    
    @Override public boolean hasNext() {
-      ++row_index;
-      return row_iter.hasNext();
+      if (next_row != null) return true;
+      if (scan_done) return false;
+      while (base_iter.hasNext()) {
+         BurlRepoRow brr = base_iter.next();
+         if (brr == null) continue;
+         ++rows_scanned;
+         if (candidate_rows != null && !candidate_rows.get(brr.getRowId().intValue())) continue;
+         if (row_filter.matches(brr)) {
+            ++rows_matched;
+            next_row = brr;
+            return true;
+          }
+       }
+      // we now know the exact count
+      scan_done = true;
+      stop_count = true;
+      return false;
     }
    
    @Override public BurlRepoRow next() {
-      return row_iter.next();
+      if (!hasNext()) throw new NoSuchElementException();
+      BurlRepoRow brr = next_row;
+      next_row = null;
+      ++row_index;
+      return brr;
+    }
+   
+   @Override public void close() {
+      stop_count = true;
+      scan_done = true;
+      next_row = null;
+    }
+   
+   private int getBackgroundCount() {
+      if (!exact_count.isDone()) return -1;
+      try {
+         return exact_count.join();
+       }
+      catch (Throwable t) {
+         return -1;
+       }
+    }
+   
+   private int countMatches(Iterator<BurlRepoRow> rows) {
+      int ct = 0;
+      try {
+         while (rows.hasNext()) {
+            if (stop_count) return -1;
+            BurlRepoRow brr = rows.next();
+            if (brr != null && row_filter.matches(brr)) ++ct;
+          }
+       }
+      catch (Throwable t) {
+         IvyLog.logE("REPO","Problem counting filter matches",t);
+         return -1;
+       }
+      finally {
+         if (rows instanceof BurlCountIter) ((BurlCountIter<?>) rows).close();
+       }
+      return ct;
     }
    
 }       // end of FilerIter
 
 
 
+/**
+ *      Iterate over a set of candidate rows in id order
+ **/
+
+private class CandidateIter implements Iterator<BurlRepoRow> {
+
+   private BitSet row_set;
+   private int next_id;
+   private boolean is_inverted;
+
+   CandidateIter(BitSet rows,boolean invert) {
+      row_set = rows;
+      is_inverted = invert;
+      next_id = (invert ? rows.length() - 1 : rows.nextSetBit(0));
+    }
+
+   @Override public boolean hasNext()           { return next_id >= 0; }
+
+   @Override public BurlRepoRow next() {
+      int id = next_id;
+      if (is_inverted) next_id = (id == 0 ? -1 : row_set.previousSetBit(id-1));
+      else next_id = row_set.nextSetBit(id+1);
+      return getRowForId(id);
+    }
+
+}       // end of inner class CandidateIter
+
+
+
 
 
 }       // end of class RepoBase
@@ -50,6 +50,8 @@ private static final Pattern LCC_SPACE = Pattern.compile("(\\s*\\.)[A-Z]");
 private static final int LCC_SORT_COUNT = 6;
 private static final String LCC_SORT_PREFIX = "0000000000";
 
+private static final String [] TITLE_ARTICLES = { "the ", "an ", "a " };
+
 
 
 
@@ -174,6 +176,18 @@ RepoColumn(String name,int no,BurlFieldData fd)
 }
 
 
+@Override public boolean isSortable()
+{
+   return field_data.isSortable(column_name);
+}
+
+
+@Override public boolean isIndexed()
+{
+   return field_data.isIndexed(column_name);
+}
+
+
 @Override public String getUpdateFieldName()
 {
    return field_data.getUpdateField(column_name);
@@ -361,6 +375,43 @@ private String fixDate(String val)
 }
 
 
+/********************************************************************************/
+/*                                                                              */
+/*      Sorting methods                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Return the key used to order values of this column.  This matches
+ *      the ORDER BY expressions used for database repositories.
+ **/
+
+String getSortKey(String val)
+{
+   if (val == null) return null;
+   
+   switch (getSortType()) {
+      case NORMAL :
+         break;
+      case NOCASE :
+         val = BurlUtil.foldString(val);
+         break;
+      case TITLE :
+         val = BurlUtil.foldString(val);
+         for (String pfx : TITLE_ARTICLES) {
+            if (val.startsWith(pfx)) {
+               val = val.substring(pfx.length());
+               break;
+             }
+          }
+         break;
+    }
+   
+   return val;
+}
+
+
+
 /********************************************************************************/
 /*                                                                              */
 /*      Ouptut Methods                                                          */
@@ -0,0 +1,284 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoColumnStore.java                                            */
+/*                                                                              */
+/*      Columnar in-memory storage for file-based repositories                  */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.brown.cs.burl.burl.BurlUtil;
+
+class RepoColumnStore implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private String [][]     column_values;          // [column][ordinal]
+private String [][]     folded_values;          // cached folded values, lazy
+private int []          row_ids;                // ordinal -> burl_id, 0 if removed
+private Map<Integer,Integer> id_map;            // burl_id -> ordinal
+private int             row_limit;
+private int             row_count;
+
+private static final int INITIAL_SIZE = 1024;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoColumnStore(int ncols)
+{
+   column_values = new String[ncols][];
+   folded_values = new String[ncols][];
+   row_ids = new int[INITIAL_SIZE];
+   id_map = new HashMap<>();
+   row_limit = 0;
+   row_count = 0;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Return the number of live rows
+ **/
+
+int size()                                      { return row_count; }
+
+
+/**
+ *      Return one more than the largest ordinal in use
+ **/
+
+int getRowLimit()                               { return row_limit; }
+
+
+/**
+ *      Return the burl_id for an ordinal, 0 if the row was removed
+ **/
+
+int getRowId(int ord)
+{
+   if (ord < 0 || ord >= row_limit) return 0;
+   return row_ids[ord];
+}
+
+
+/**
+ *      Find the ordinal for a burl_id, -1 if not present
+ **/
+
+int findRow(Number id)
+{
+   if (id == null) return -1;
+   Integer ord = id_map.get(id.intValue());
+   if (ord == null) return -1;
+   return ord;
+}
+
+
+String getValue(int col,int ord)
+{
+   if (col < 0 || col >= column_values.length) return null;
+   String [] vals = column_values[col];
+   if (vals == null || ord >= vals.length) return null;
+   return vals[ord];
+}
+
+
+/**
+ *      Return the folded form of a value for searching.  This is computed
+ *      when first needed and dropped when the value changes.  If the value
+ *      changes while it is being computed the result is not kept.
+ **/
+
+String getFoldedValue(int col,int ord)
+{
+   String v = getValue(col,ord);
+   if (v == null) return null;
+
+   String [] folds = folded_values[col];
+   if (folds == null || ord >= folds.length) {
+      synchronized (this) {
+         folds = folded_values[col];
+         if (folds == null || ord >= folds.length) {
+            String [] vals = column_values[col];
+            folds = new String[vals == null ? row_ids.length : vals.length];
+            folded_values[col] = folds;
+          }
+       }
+      if (ord >= folds.length) return BurlUtil.foldString(v);
+    }
+
+   String fv = folds[ord];
+   if (fv == null) {
+      // for plain lower case ASCII this is the same string, so no extra space
+      fv = BurlUtil.foldString(v);
+      folds[ord] = fv;
+      if (getValue(col,ord) != v) folds[ord] = null;
+    }
+
+   return fv;
+}
+
+
+void setValue(int col,int ord,String v)
+{
+   String [] vals = column_values[col];
+   if (vals == null) {
+      if (v == null) return;
+      vals = new String[row_ids.length];
+      column_values[col] = vals;
+    }
+   vals[ord] = v;
+   clearFolded(col,ord);
+}
+
+
+private void clearFolded(int col,int ord)
+{
+   String [] lows = folded_values[col];
+   if (lows != null && ord < lows.length) lows[ord] = null;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Row management                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+int addRow(int id)
+{
+   int ord = findRow(id);
+   if (ord >= 0) return ord;
+
+   if (row_limit >= row_ids.length) {
+      int nsz = row_ids.length * 2;
+      row_ids = Arrays.copyOf(row_ids,nsz);
+      for (int i = 0; i < column_values.length; ++i) {
+         if (column_values[i] != null) {
+            column_values[i] = Arrays.copyOf(column_values[i],nsz);
+          }
+         if (folded_values[i] != null) {
+            folded_values[i] = Arrays.copyOf(folded_values[i],nsz);
+          }
+       }
+    }
+
+   ord = row_limit++;
+   row_ids[ord] = id;
+   id_map.put(id,ord);
+   ++row_count;
+
+   return ord;
+}
+
+
+void removeRow(int ord)
+{
+   if (ord < 0 || ord >= row_limit || row_ids[ord] == 0) return;
+
+   id_map.remove(row_ids[ord]);
+   row_ids[ord] = 0;
+   for (int i = 0; i < column_values.length; ++i) {
+      String [] vals = column_values[i];
+      if (vals != null) vals[ord] = null;
+      clearFolded(i,ord);
+    }
+   --row_count;
+}
+
+
+/**
+ *      Return a copy of the rows for writing a snapshot.  Values are
+ *      shared, but later edits to this store do not show in the copy.
+ **/
+
+synchronized RepoColumnStore copy()
+{
+   RepoColumnStore rslt = new RepoColumnStore(column_values.length);
+   rslt.row_ids = Arrays.copyOf(row_ids,row_limit);
+   for (int i = 0; i < column_values.length; ++i) {
+      String [] vals = column_values[i];
+      if (vals != null) {
+         rslt.column_values[i] = Arrays.copyOf(vals,Math.min(row_limit,vals.length));
+       }
+    }
+   rslt.row_limit = row_limit;
+   rslt.row_count = row_count;
+
+   return rslt;
+}
+
+
+/**
+ *      Renumber the ordinals so they follow burl_id order and drop any
+ *      removed rows.  Only safe when no row views are outstanding, i.e.
+ *      right after loading.
+ **/
+
+void sortById()
+{
+   Integer [] ords = new Integer[row_count];
+   int ct = 0;
+   for (int i = 0; i < row_limit; ++i) {
+      if (row_ids[i] != 0) ords[ct++] = i;
+    }
+   Arrays.sort(ords,(o1,o2) -> Integer.compare(row_ids[o1],row_ids[o2]));
+
+   int [] nids = new int[row_ids.length];
+   for (int i = 0; i < ct; ++i) nids[i] = row_ids[ords[i]];
+   for (int c = 0; c < column_values.length; ++c) {
+      String [] vals = column_values[c];
+      if (vals == null) continue;
+      String [] nvals = new String[vals.length];
+      for (int i = 0; i < ct; ++i) nvals[i] = vals[ords[i]];
+      column_values[c] = nvals;
+    }
+
+   row_ids = nids;
+   row_limit = ct;
+   folded_values = new String[column_values.length][];
+   id_map.clear();
+   for (int i = 0; i < ct; ++i) id_map.put(row_ids[i],i);
+}
+
+
+
+}       // end of class RepoColumnStore
+
+
+
+
+/* end of RepoColumnStore.java */
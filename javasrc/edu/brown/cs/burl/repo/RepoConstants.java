@@ -22,6 +22,55 @@ import edu.brown.cs.burl.burl.BurlConstants;
 public interface RepoConstants extends BurlConstants
 {
 
+/**
+ *      CSV files larger than this are parsed in parallel chunks on load
+ **/
+
+int CSV_PARALLEL_LOAD_SIZE = 4*1024*1024;
+
+
+/**
+ *      Number of journal records after which a file repository is
+ *      rewritten as a new snapshot in the background
+ **/
+
+int JOURNAL_COMPACT_SIZE = 10000;
+
+
+/**
+ *      Delay (ms) after a journal record is written before the journal is
+ *      forced to disk.  Records written in the meantime share one sync.
+ **/
+
+long JOURNAL_SYNC_DELAY = 200;
+
+
+/**
+ *      Default delays (ms) before edits to a file repository are saved: the
+ *      repository must be quiet for FLUSH_DELAY, but is saved after at most
+ *      MAX_FLUSH_DELAY.  Set by the flushDelay and maxFlushDelay properties.
+ **/
+
+long FLUSH_DELAY = 5000;
+long MAX_FLUSH_DELAY = 60000;
+
+
+/**
+ *      Filters that have to look at no more than this many rows count their
+ *      matches immediately rather than in the background
+ **/
+
+int FILTER_SYNC_COUNT_SIZE = 2000;
+
+
+/**
+ *      Default number of rows to check above which in-memory repositories
+ *      filter in parallel.  Set by the parallelFilterSize property; 0
+ *      turns this off.
+ **/
+
+long PARALLEL_FILTER_SIZE = 50000;
+
 
 
 
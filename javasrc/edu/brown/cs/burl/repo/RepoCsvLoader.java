@@ -0,0 +1,284 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoCsvLoader.java                                              */
+/*                                                                              */
+/*      Fast loader for CSV repository files using a memory mapped file         */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.brown.cs.burl.burl.BurlRepoColumn;
+
+class RepoCsvLoader implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private RepoFileBase    for_repo;
+private File            csv_file;
+private byte            quote_byte;
+private byte            sep_byte;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoCsvLoader(RepoFileBase repo,File f)
+{
+   for_repo = repo;
+   csv_file = f;
+   quote_byte = (byte) RepoBase.getCSVQuote().charAt(0);
+   sep_byte = (byte) RepoBase.getCSVSeparator().charAt(0);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Check if the loader can be used                                         */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      The tokenizer works on UTF-8 bytes, so the quote and separator have
+ *      to be single ASCII characters.
+ **/
+
+static boolean canLoad(File f)
+{
+   String q = RepoBase.getCSVQuote();
+   String s = RepoBase.getCSVSeparator();
+   if (q.length() != 1 || q.charAt(0) >= 128) return false;
+   if (s.length() != 1 || s.charAt(0) >= 128) return false;
+   if (f.length() >= Integer.MAX_VALUE) return false;
+
+   return true;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Load the file                                                           */
+/*                                                                              */
+/********************************************************************************/
+
+void load() throws IOException
+{
+   ByteBuffer data = null;
+   try (FileChannel fc = FileChannel.open(csv_file.toPath(),StandardOpenOption.READ)) {
+      data = fc.map(FileChannel.MapMode.READ_ONLY,0,fc.size());
+    }
+
+   int len = data.limit();
+   Tokenizer hdrtok = new Tokenizer(data,0,len);
+   List<String> hdr = hdrtok.nextRecord();
+   if (hdr == null) return;
+
+   BurlRepoColumn [] cols = new BurlRepoColumn[hdr.size()];
+   int idcol = -1;
+   for (int i = 0; i < hdr.size(); ++i) {
+      String h = hdr.get(i).trim();
+      if (h.equals("burl_id")) idcol = i;
+      else cols[i] = for_repo.getColumn(h);
+    }
+
+   List<Tokenizer> chunks = splitChunks(data,hdrtok.getPosition(),len);
+   List<List<String []>> parsed = null;
+   if (chunks.size() == 1) {
+      parsed = List.of(chunks.get(0).parseAll());
+    }
+   else {
+      parsed = chunks.parallelStream().map(Tokenizer::parseAll).toList();
+    }
+
+   for (List<String []> recs : parsed) {
+      for (String [] rec : recs) {
+         int id = 0;
+         if (idcol >= 0 && idcol < rec.length) {
+            try {
+               id = Integer.parseInt(rec[idcol].trim());
+             }
+            catch (NumberFormatException e) { }
+          }
+         for_repo.loadRow(id,cols,rec);
+       }
+    }
+}
+
+
+/**
+ *      Split the data into chunks that start at record boundaries.  A line
+ *      end always ends a record, so any position after a newline is safe.
+ **/
+
+private List<Tokenizer> splitChunks(ByteBuffer data,int start,int end)
+{
+   List<Tokenizer> rslt = new ArrayList<>();
+   int nchunk = 1;
+   if (end - start > CSV_PARALLEL_LOAD_SIZE) {
+      nchunk = Runtime.getRuntime().availableProcessors();
+    }
+   int size = (end - start) / nchunk + 1;
+
+   int pos = start;
+   while (pos < end) {
+      int next = Math.min(end,pos + size);
+      while (next < end && data.get(next-1) != '\n') ++next;
+      rslt.add(new Tokenizer(data,pos,next));
+      pos = next;
+    }
+   if (rslt.isEmpty()) rslt.add(new Tokenizer(data,start,end));
+
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Byte-level CSV tokenizer                                                */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Tokenize a range of the file.  This follows the rules of
+ *      RepoBase.splitCsv: a field is quoted only if the quote starts it,
+ *      doubled quotes inside a quoted field stand for a quote, a quote
+ *      followed by a separator or line end closes the field, and a line
+ *      end always ends the record.
+ **/
+
+private class Tokenizer {
+
+   private ByteBuffer data_buffer;
+   private int cur_pos;
+   private int end_pos;
+   private byte [] field_bytes;
+   private int field_length;
+
+   Tokenizer(ByteBuffer buf,int start,int end) {
+      data_buffer = buf;
+      cur_pos = start;
+      end_pos = end;
+      field_bytes = new byte[256];
+      field_length = 0;
+    }
+
+   int getPosition()                    { return cur_pos; }
+
+   List<String []> parseAll() {
+      List<String []> rslt = new ArrayList<>();
+      for ( ; ; ) {
+         List<String> rec = nextRecord();
+         if (rec == null) break;
+         rslt.add(rec.toArray(new String[rec.size()]));
+       }
+      return rslt;
+    }
+
+   List<String> nextRecord() {
+      while (cur_pos < end_pos) {
+         byte b = data_buffer.get(cur_pos);
+         if (b != '\r' && b != '\n') break;
+         ++cur_pos;
+       }
+      if (cur_pos >= end_pos) return null;
+
+      List<String> items = new ArrayList<>();
+      boolean quoted = false;
+      field_length = 0;
+
+      while (cur_pos < end_pos) {
+         byte b = data_buffer.get(cur_pos++);
+         if (b == quote_byte) {
+            if (quoted) {
+               if (cur_pos >= end_pos) {
+                  quoted = false;
+                  continue;
+                }
+               byte nb = data_buffer.get(cur_pos);
+               if (nb == quote_byte) {
+                  addByte(b);
+                  ++cur_pos;
+                }
+               else if (nb == sep_byte || nb == '\n' || nb == '\r') {
+                  quoted = false;
+                }
+             }
+            else if (field_length == 0) {
+               quoted = true;
+             }
+            else {
+               addByte(b);
+             }
+          }
+         else if (b == sep_byte && !quoted) {
+            items.add(getField());
+          }
+         else if (b == '\r' || b == '\n') {
+            break;
+          }
+         else {
+            if (quoted && field_length == 0 && b == '\t') continue;
+            addByte(b);
+          }
+       }
+
+      items.add(getField());
+
+      return items;
+    }
+
+   private void addByte(byte b) {
+      if (field_length >= field_bytes.length) {
+         field_bytes = Arrays.copyOf(field_bytes,field_bytes.length*2);
+       }
+      field_bytes[field_length++] = b;
+    }
+
+   private String getField() {
+      String s = new String(field_bytes,0,field_length,StandardCharsets.UTF_8);
+      field_length = 0;
+      return s;
+    }
+
+}       // end of inner class Tokenizer
+
+
+
+}       // end of class RepoCsvLoader
+
+
+
+
+/* end of RepoCsvLoader.java */
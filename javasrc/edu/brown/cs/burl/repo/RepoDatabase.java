@@ -17,16 +17,21 @@
 
 package edu.brown.cs.burl.repo;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONObject;
 
 import edu.brown.cs.burl.burl.BurlControl;
+import edu.brown.cs.burl.burl.BurlFilter;
 import edu.brown.cs.burl.burl.BurlLibrary;
 import edu.brown.cs.burl.burl.BurlRepoColumn;
 import edu.brown.cs.burl.burl.BurlRepoRow;
 import edu.brown.cs.burl.burl.BurlStorage;
+import edu.brown.cs.ivy.file.IvyLog;
 
 class RepoDatabase extends RepoBase implements RepoConstants
 {
@@ -109,6 +114,43 @@ RepoDatabase(BurlControl bc,BurlLibrary lib)
 }
 
 
+/**
+ *      Create a set of rows with a single INSERT.  The initial values
+ *      are gathered by running setInitialValues on unsaved rows that
+ *      buffer their edits.
+ **/
+
+@Override public List<BurlRepoRow> newRows(List<String> idnos)
+{
+   List<BurlRepoRow> rslt = new ArrayList<>();
+   if (idnos.isEmpty()) return rslt;
+   
+   List<DatabaseRow> rows = new ArrayList<>();
+   List<Map<String,String>> values = new ArrayList<>();
+   for (String idno : idnos) {
+      DatabaseRow dr = new DatabaseRow();
+      setInitialValues(dr,idno);
+      rows.add(dr);
+      values.add(dr.getPendingEdits());
+    }
+   
+   List<Number> ids = burl_store.addDataRows(this,values);
+   if (ids == null || ids.size() != rows.size()) {
+      IvyLog.logE("REPO","Problem adding new rows to " + getName());
+      for (int i = 0; i < rows.size(); ++i) rslt.add(null);
+      return rslt;
+    }
+   
+   for (int i = 0; i < rows.size(); ++i) {
+      DatabaseRow dr = rows.get(i);
+      dr.setSaved(ids.get(i));
+      rslt.add(dr);
+    }
+   
+   return rslt;
+}
+
+
 @Override public BurlRepoRow getRowForId(Number id)
 {
    if (id == null) return null;
@@ -158,17 +200,47 @@ RepoDatabase(BurlControl bc,BurlLibrary lib)
 
 @Override public BurlRowIter getRows(BurlRepoColumn sort,boolean invert)
 {
-   BurlCountIter<JSONObject> objiter = burl_store.getAllDataRows(this,sort,invert); 
+   BurlCountIter<BurlRowData> objiter = burl_store.getAllDataRows(this,sort,invert); 
    
    return new RowIterator(objiter);
 } 
 
 
+/**
+ *      Let the database do the filtering when the filter can be expressed
+ *      as data
+ **/
+
+@Override public BurlRowIter getRows(BurlFilter filter)
+{
+   if (filter == null || filter.getFilterData() == null) return super.getRows(filter);
+   
+   BurlCountIter<BurlRowData> objiter = burl_store.getDataRows(this,
+         filter.getFilterData(),filter.getSortField(),filter.invertSort());
+   
+   return new RowIterator(objiter);
+}
+
+
+@Override public BurlRowPage getRowPage(JSONObject filter,BurlRepoColumn sort,
+      boolean invert,String afterkey,Number afterid,int count)
+{
+   List<BurlRowData> data = burl_store.getDataPage(this,filter,sort,invert,
+         afterkey,afterid,count);
+   if (data == null) return null;
+   
+   int total = -1;
+   if (afterid == null) total = burl_store.getDataCount(this,filter);
+   
+   return new RowPage(data,total);
+}
+
+
 private class RowIterator implements Iterable<BurlRepoRow>, BurlRowIter {
    
-   private BurlCountIter<JSONObject> object_iter;
+   private BurlCountIter<BurlRowData> object_iter;
    
-   RowIterator(BurlCountIter<JSONObject> oiter) {
+   RowIterator(BurlCountIter<BurlRowData> oiter) {
       object_iter = oiter;
     }
    
@@ -181,9 +253,9 @@ private class RowIterator implements Iterable<BurlRepoRow>, BurlRowIter {
    
    @Override public BurlRepoRow next() {
       if (object_iter == null) return null;
-      JSONObject jo = object_iter.next();
-      if (jo == null) return null;
-      return new DatabaseRow(jo);
+      BurlRowData rd = object_iter.next();
+      if (rd == null) return null;
+      return new DatabaseRow(rd);
     }
    
    @Override public int getRowCount() {
@@ -194,10 +266,47 @@ private class RowIterator implements Iterable<BurlRepoRow>, BurlRowIter {
       return object_iter.getIndex(); 
     }
    
+   @Override public void close() {
+      if (object_iter != null) object_iter.close();
+    }
+   
+   @Override public boolean isCountExact() {
+      return object_iter == null || object_iter.isCountExact();
+    }
+   
 }       // end of inner class RowIterator
 
 
 
+private class RowPage implements BurlRowPage {
+   
+   private List<BurlRepoRow> page_rows;
+   private String last_key;
+   private Number last_id;
+   private int row_count;
+   
+   RowPage(List<BurlRowData> data,int total) {
+      page_rows = new ArrayList<>();
+      last_key = null;
+      last_id = null;
+      row_count = total;
+      for (BurlRowData rd : data) {
+         last_key = rd.getSortKey();
+         DatabaseRow dr = new DatabaseRow(rd);
+         last_id = dr.getRowId();
+         page_rows.add(dr);
+       }
+    }
+   
+   @Override public List<BurlRepoRow> getRows()         { return page_rows; }
+   @Override public String getLastSortKey()             { return last_key; }
+   @Override public Number getLastRowId()               { return last_id; }
+   @Override public int getRowCount()                   { return row_count; }
+   
+}       // end of inner class RowPage
+
+
+
 /********************************************************************************/
 /*                                                                              */
 /*      Reprenstation of a row                                                  */
@@ -206,28 +315,72 @@ private class RowIterator implements Iterable<BurlRepoRow>, BurlRowIter {
 
 private class DatabaseRow extends RepoRowBase {
    
-   private JSONObject row_data; 
+   private String [] row_data;                  // indexed by column number
    private Number row_index;
+   private Map<String,String> pending_edits;    // null if not in an edit
+   private int edit_depth;
    
    DatabaseRow(Number index) {
       super(RepoDatabase.this);
       row_data = null;
       row_index = index;
+      pending_edits = null;
+      edit_depth = 0;
     }
    
-   DatabaseRow(JSONObject data) {
+   /**
+    *   Create a row that is not yet in the database.  Edits are
+    *   held until setSaved is called.
+    **/
+   
+   DatabaseRow() {
       super(RepoDatabase.this);
-      row_data = data;
-      row_index = data.getNumber("burl_id");
+      row_data = new String[0];
+      row_index = null;
+      pending_edits = new LinkedHashMap<>();
+      edit_depth = 1;
     }
    
+   DatabaseRow(BurlRowData data) {
+      super(RepoDatabase.this);
+      row_data = data.getValues();
+      row_index = data.getRowId();
+      pending_edits = null;
+      edit_depth = 0;
+    }
+   
+   Map<String,String> getPendingEdits()         { return pending_edits; }
+   
+   void setSaved(Number index) {
+      row_index = index;
+      row_data = null;
+      pending_edits = null;
+      edit_depth = 0;
+    }
+   
+   @Override public void startEdit() {
+      if (edit_depth++ == 0) pending_edits = new LinkedHashMap<>();
+    }
+   
+   @Override public void commitEdit() {
+      if (edit_depth == 0 || --edit_depth > 0) return;
+      Map<String,String> upds = pending_edits;
+      pending_edits = null;
+      burl_store.updateDataRow(RepoDatabase.this,row_index,upds);
+    }
    
    @Override public String getData(BurlRepoColumn rc) {
+      if (pending_edits != null && pending_edits.containsKey(rc.getFieldName())) {
+         return pending_edits.get(rc.getFieldName());
+       }
       if (row_data == null) {
-         row_data = burl_store.getDataRow(RepoDatabase.this,row_index);
+         BurlRowData rd = burl_store.getDataRow(RepoDatabase.this,row_index);
+         if (rd == null) return null;
+         row_data = rd.getValues();
        }
-      if (row_data == null) return null;
-      return row_data.optString(rc.getFieldName());
+      int no = rc.getNumber();
+      if (no < 0 || no >= row_data.length || row_data[no] == null) return "";
+      return row_data[no];
     }
    
    @Override public void setData(BurlRepoColumn rc,String v) {
@@ -236,9 +389,15 @@ private class DatabaseRow extends RepoRowBase {
          String ov = getData(rc);
          updateIsbnField(ov,v);
        }
-      burl_store.updateDataRow(RepoDatabase.this,row_index,rc.getFieldName(),v);
-      if (row_data != null) {
-         row_data.put(rc.getFieldName(),v);
+      if (pending_edits != null) {
+         pending_edits.put(rc.getFieldName(),v);
+       }
+      else {
+         burl_store.updateDataRow(RepoDatabase.this,row_index,rc.getFieldName(),v);
+       }
+      int no = rc.getNumber();
+      if (row_data != null && no >= 0 && no < row_data.length) {
+         row_data[no] = v;
        }
       
       RepoColumn upd = getUpdateColumn(rc);  
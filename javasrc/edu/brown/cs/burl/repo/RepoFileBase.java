@@ -0,0 +1,573 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoFileBase.java                                               */
+/*                                                                              */
+/*      Common code for repositories held in memory and saved to a file         */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import edu.brown.cs.burl.burl.BurlControl;
+import edu.brown.cs.burl.burl.BurlLibrary;
+import edu.brown.cs.burl.burl.BurlRepoColumn;
+import edu.brown.cs.burl.burl.BurlRepoRow;
+import edu.brown.cs.burl.burl.BurlUtil;
+import edu.brown.cs.ivy.file.IvyLog;
+
+abstract class RepoFileBase extends RepoBase
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private RepoColumnStore column_store;
+private File            repo_file;
+private int             max_id;
+private Map<BurlRepoColumn,RepoSortIndex> sort_indexes;
+private RepoJournal     repo_journal;
+private Object          snapshot_lock;
+private volatile long   last_flush;
+private long            flush_delay;
+private long            max_flush_delay;
+private int             parallel_filter_size;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoFileBase(BurlControl bc,BurlLibrary lib,String sfx)
+{
+   super(bc,lib);
+   column_store = null;
+   File f1 = bc.getDataDirectory();
+   repo_file = new File(f1,lib.getNameKey() + sfx);
+   max_id = 0;
+   sort_indexes = new HashMap<>();
+   repo_journal = new RepoJournal(repo_file);
+   snapshot_lock = new Object();
+   last_flush = 0;
+   flush_delay = BurlUtil.getLongProperty(bc,"flushDelay",FLUSH_DELAY);
+   max_flush_delay = BurlUtil.getLongProperty(bc,"maxFlushDelay",MAX_FLUSH_DELAY);
+   parallel_filter_size = (int) BurlUtil.getLongProperty(bc,"parallelFilterSize",PARALLEL_FILTER_SIZE);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Abstract methods                                                        */
+/*                                                                              */
+/********************************************************************************/
+
+protected abstract void inputRepoFromFile(File f);
+
+protected abstract BurlExportFormat getFileFormat();
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+protected File getRepoFile()                    { return repo_file; }
+
+long getFlushDelay()                            { return flush_delay; }
+
+long getMaxFlushDelay()                         { return max_flush_delay; }
+
+@Override public long getLastFlushTime()        { return last_flush; }
+
+@Override public int getPendingEdits()          { return repo_journal.getPendingCount(); }
+
+@Override protected int getParallelFilterSize() { return parallel_filter_size; }
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Open/Close methods                                                      */
+/*                                                                              */
+/********************************************************************************/
+
+@Override public void openRepository()
+{
+   if (column_store == null) {
+      column_store = new RepoColumnStore(getColumns().size());
+      sort_indexes = new HashMap<>();
+      if (repo_file != null && repo_file.exists()) {
+         inputRepoFromFile(repo_file);
+       }
+      repo_journal.replay(this);
+      column_store.sortById();
+      setupIsbnLccnMap();
+      setupIndexes();
+      setupSortIndexes();
+    }
+}
+
+
+/**
+ *      Write a snapshot of the repository and drop the journal it covers.
+ *      The rows are copied under the store lock so editing can continue
+ *      while the file is written; later edits go to the new journal.  The
+ *      snapshot is written to a temporary file that replaces the old one
+ *      only when complete.
+ **/
+
+@Override public void outputRepository()
+{
+   synchronized (snapshot_lock) {
+      RepoColumnStore store = column_store;
+      if (store == null) return;
+      RepoColumnStore snap = null;
+      synchronized (store) {
+         // edits left by a failed snapshot still need one
+         if (repo_journal.getPendingCount() == 0 && repo_file.exists()) return;
+         repo_journal.startSnapshot();
+         snap = store.copy();
+       }
+      BurlRowIter rows = new StoreIter(snap,new OrdinalIter(snap,false));
+      File tmp = new File(repo_file.getPath() + ".tmp");
+      if (exportRepository(tmp,getFileFormat(),rows) && replaceRepoFile(tmp)) {
+         repo_journal.finishSnapshot();
+         last_flush = System.currentTimeMillis();
+       }
+      else {
+         tmp.delete();
+       }
+    }
+}
+
+
+private boolean replaceRepoFile(File tmp)
+{
+   try {
+      try (FileChannel fc = FileChannel.open(tmp.toPath(),StandardOpenOption.WRITE)) {
+         fc.force(true);
+       }
+      try {
+         Files.move(tmp.toPath(),repo_file.toPath(),
+               StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+       }
+      catch (AtomicMoveNotSupportedException e) {
+         Files.move(tmp.toPath(),repo_file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+       }
+      return true;
+    }
+   catch (IOException e) {
+      IvyLog.logE("REPO","Problem replacing repository file " + repo_file,e);
+    }
+
+   return false;
+}
+
+
+@Override public void closeRepository()
+{
+   RepoSnapshotThread.getThread().cancelSnapshot(this);
+   outputRepository();
+   repo_journal.close();
+   column_store = null;
+}
+
+
+@Override public void deleteRepository()
+{
+   RepoSnapshotThread.getThread().cancelSnapshot(this);
+   repo_journal.delete();
+   repo_file.delete();
+   column_store = null;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Row methods                                                             */
+/*                                                                              */
+/********************************************************************************/
+
+@Override public BurlRowIter getRows(BurlRepoColumn sort,boolean invert)
+{
+   Iterator<Integer> ords = null;
+   
+   if (sort == null) {
+      ords = new OrdinalIter(column_store,invert);
+    }
+   else {
+      RepoSortIndex idx = sort_indexes.get(sort);
+      if (idx != null) ords = idx.getOrdinals(invert);
+      else ords = sortOrdinals(getColumn(sort.getName()),invert);
+    }
+
+   return new StoreIter(column_store,ords);
+}
+
+
+@Override public BurlRepoRow newRow()
+{
+   return newRow(++max_id);
+}
+
+
+protected BurlRepoRow newRow(int idx)
+{
+   int ord = 0;
+   synchronized (column_store) {
+      ord = column_store.addRow(idx);
+      if (idx > max_id) max_id = idx;
+      repo_journal.logNewRow(idx);
+    }
+   noteEdit();
+   for (RepoSortIndex sidx : sort_indexes.values()) {
+      sidx.setValue(ord,null);
+    }
+
+   return new FileRow(column_store,ord,idx);
+}
+
+
+/**
+ *      Add a row read from the data file in bulk.  Values are fixed but no
+ *      derived fields are recomputed since the saved file already has them.
+ **/
+
+protected void loadRow(int id,BurlRepoColumn [] cols,String [] vals)
+{
+   if (id <= 0 || column_store.findRow(id) >= 0) id = max_id + 1;
+   int ord = column_store.addRow(id);
+   if (id > max_id) max_id = id;
+
+   int n = Math.min(cols.length,vals.length);
+   for (int i = 0; i < n; ++i) {
+      BurlRepoColumn brc = cols[i];
+      if (brc == null) continue;
+      String v = vals[i];
+      if (v != null) v = v.trim();
+      v = brc.fixFieldValue(v);
+      if (v != null && v.isEmpty()) v = null;
+      column_store.setValue(brc.getNumber(),ord,v);
+    }
+}
+
+
+@Override public BurlRepoRow getRowForId(Number id)
+{
+   int ord = column_store.findRow(id);
+   if (ord < 0) return null;
+
+   return new FileRow(column_store,ord,column_store.getRowId(ord));
+}
+
+
+@Override public void removeRow(Number id)
+{
+   int ord = column_store.findRow(id);
+   if (ord < 0) return;
+
+   for (RepoSortIndex sidx : sort_indexes.values()) {
+      sidx.removeRow(ord);
+    }
+   for (BurlRepoColumn brc : getColumns()) {
+      updateIndexes(brc,id,column_store.getValue(brc.getNumber(),ord),null);
+    }
+   synchronized (column_store) {
+      column_store.removeRow(ord);
+      repo_journal.logRemoveRow(id.intValue());
+    }
+   noteEdit();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Journal methods                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Schedule a snapshot after an edit.  A long journal is folded back
+ *      into the snapshot right away rather than waiting for a quiet period.
+ **/
+
+private void noteEdit()
+{
+   RepoSnapshotThread th = RepoSnapshotThread.getThread();
+   if (repo_journal.getRecordCount() >= JOURNAL_COMPACT_SIZE) {
+      th.requestSnapshot(this);
+    }
+   else {
+      th.noteEdit(this);
+    }
+}
+
+
+void applyNewRow(int id)
+{
+   column_store.addRow(id);
+   if (id > max_id) max_id = id;
+}
+
+
+void applySetData(int id,String col,String v)
+{
+   int ord = column_store.findRow(id);
+   BurlRepoColumn brc = getColumn(col);
+   if (ord < 0 || brc == null) return;
+   column_store.setValue(brc.getNumber(),ord,v);
+}
+
+
+void applyRemoveRow(int id)
+{
+   column_store.removeRow(column_store.findRow(id));
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Isbn/Lccn lookup setup                                                  */
+/*                                                                              */
+/********************************************************************************/
+
+private void setupIsbnLccnMap()
+{
+   for (BurlRepoColumn brc : getColumns()) {
+      if (!brc.isOriginalIsbnField() && !brc.isLccnField()) continue;
+      for (int i = 0; i < column_store.getRowLimit(); ++i) {
+         int id = column_store.getRowId(i);
+         if (id == 0) continue;
+         String v = column_store.getValue(brc.getNumber(),i);
+         if (v != null) updateIsbnLccnMap(null,v,id);
+       }
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Sorting methods                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private void setupSortIndexes()
+{
+   for (BurlRepoColumn brc : getColumns()) {
+      if (!brc.isSortable()) continue;
+      RepoSortIndex sidx = new RepoSortIndex(getColumn(brc.getName()));
+      for (int i = 0; i < column_store.getRowLimit(); ++i) {
+         if (column_store.getRowId(i) == 0) continue;
+         sidx.setValue(i,column_store.getValue(brc.getNumber(),i));
+       }
+      sort_indexes.put(brc,sidx);
+    }
+}
+
+
+private Iterator<Integer> sortOrdinals(RepoColumn rc,boolean invert)
+{
+   int lim = column_store.getRowLimit();
+   Integer [] ords = new Integer[column_store.size()];
+   String [] keys = new String[lim];
+   int ct = 0;
+   for (int i = 0; i < lim && ct < ords.length; ++i) {
+      if (column_store.getRowId(i) == 0) continue;
+      keys[i] = rc.getSortKey(column_store.getValue(rc.getNumber(),i));
+      ords[ct++] = i;
+    }
+   
+   Arrays.sort(ords,0,ct,(o1,o2) -> {
+      int cmp = RepoSortIndex.compareKeys(keys[o1],keys[o2]);
+      if (cmp == 0) cmp = Integer.compare(o1,o2);
+      return (invert ? -cmp : cmp);
+    });
+   
+   return Arrays.asList(ords).subList(0,ct).iterator();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Iterators over the live rows                                            */
+/*                                                                              */
+/********************************************************************************/
+
+private class StoreIter implements BurlRowIter {
+
+   private RepoColumnStore row_store;
+   private Iterator<Integer> ordinal_iter;
+   private int next_ordinal;
+   private int row_index;
+   private int row_count;
+
+   StoreIter(RepoColumnStore store,Iterator<Integer> ords) {
+      row_store = store;
+      ordinal_iter = ords;
+      next_ordinal = -1;
+      row_index = 0;
+      row_count = store.size();
+    }
+
+   @Override public Iterator<BurlRepoRow> iterator()    { return this; }
+
+   @Override public boolean hasNext() {
+      while (next_ordinal < 0) {
+         if (!ordinal_iter.hasNext()) return false;
+         int ord = ordinal_iter.next();
+         if (row_store.getRowId(ord) != 0) next_ordinal = ord;
+       }
+      return true;
+    }
+
+   @Override public BurlRepoRow next() {
+      if (!hasNext()) return null;
+      int ord = next_ordinal;
+      next_ordinal = -1;
+      ++row_index;
+      return new FileRow(row_store,ord,row_store.getRowId(ord));
+    }
+
+   @Override public int getRowCount()           { return row_count; }
+   @Override public int getIndex()              { return row_index; }
+
+}       // end of inner class StoreIter
+
+
+
+private class OrdinalIter implements Iterator<Integer> {
+
+   private RepoColumnStore row_store;
+   private int next_ordinal;
+   private int ordinal_delta;
+
+   OrdinalIter(RepoColumnStore store,boolean invert) {
+      row_store = store;
+      if (invert) {
+         next_ordinal = store.getRowLimit() - 1;
+         ordinal_delta = -1;
+       }
+      else {
+         next_ordinal = 0;
+         ordinal_delta = 1;
+       }
+    }
+
+   @Override public boolean hasNext() {
+      return next_ordinal >= 0 && next_ordinal < row_store.getRowLimit();
+    }
+
+   @Override public Integer next() {
+      int ord = next_ordinal;
+      next_ordinal += ordinal_delta;
+      return ord;
+    }
+
+}       // end of inner class OrdinalIter
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Row view into the column store                                          */
+/*                                                                              */
+/********************************************************************************/
+
+private class FileRow extends RepoRowBase {
+
+   private RepoColumnStore row_store;
+   private int row_ordinal;
+   private int row_index;
+
+   FileRow(RepoColumnStore store,int ord,int idx) {
+      super(RepoFileBase.this);
+      row_store = store;
+      row_ordinal = ord;
+      row_index = idx;
+    }
+
+   @Override public String getData(BurlRepoColumn rc) {
+      return row_store.getValue(rc.getNumber(),row_ordinal);
+    }
+
+   @Override public String getFoldedData(BurlRepoColumn rc) {
+      return row_store.getFoldedValue(rc.getNumber(),row_ordinal);
+    }
+
+   @Override public void setData(BurlRepoColumn rc,String v) {
+      v = rc.fixFieldValue(v);
+
+      if (rc.isOriginalIsbnField()) {
+         // Might want to do this for all ISBN fields
+         String ov = getData(rc);
+         updateIsbnField(ov,v);
+         updateIsbnLccnMap(ov,v,row_index);
+       }
+      else if (rc.isLccnField()) {
+         String ov = getData(rc);
+         updateIsbnLccnMap(ov,v,row_index);
+       }
+
+      if (v != null && v.isEmpty()) v = null;
+      updateIndexes(rc,row_index,getData(rc),v);
+      synchronized (row_store) {
+         row_store.setValue(rc.getNumber(),row_ordinal,v);
+         repo_journal.logSetData(row_index,rc.getName(),v);
+       }
+      noteEdit();
+      RepoSortIndex sidx = sort_indexes.get(rc);
+      if (sidx != null) sidx.setValue(row_ordinal,v);
+
+      RepoColumn upd = getUpdateColumn(rc);
+      if (upd != null) setData(upd,v);
+    }
+
+   @Override public Number getRowId() {
+      return row_index;
+    }
+
+}       // end of inner class FileRow
+
+
+
+}       // end of class RepoFileBase
+
+
+
+
+/* end of RepoFileBase.java */
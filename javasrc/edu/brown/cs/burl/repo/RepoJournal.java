@@ -0,0 +1,345 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoJournal.java                                                */
+/*                                                                              */
+/*      Append-only journal of edits to a file repository                       */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.brown.cs.burl.burl.BurlUtil;
+import edu.brown.cs.ivy.file.IvyLog;
+
+class RepoJournal implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private File            journal_file;
+private File            rotated_file;
+private FileOutputStream journal_stream;
+private Writer          journal_writer;
+private int             record_count;
+private int             rotated_count;
+private boolean         needs_sync;
+private boolean         rotated_sync;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoJournal(File datafile)
+{
+   journal_file = new File(datafile.getPath() + ".journal");
+   rotated_file = new File(datafile.getPath() + ".journal.1");
+   journal_stream = null;
+   journal_writer = null;
+   record_count = 0;
+   rotated_count = 0;
+   needs_sync = false;
+   rotated_sync = false;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Return the number of records written since the last snapshot
+ **/
+
+synchronized int getRecordCount()               { return record_count; }
+
+
+/**
+ *      Return the number of records not yet covered by a finished snapshot,
+ *      including those moved aside by a snapshot that has not completed
+ **/
+
+synchronized int getPendingCount()              { return record_count + rotated_count; }
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Replay on open                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Apply the journal on top of the loaded snapshot.  A journal left
+ *      from an unfinished snapshot is replayed first.  Records are
+ *      idempotent, so replaying edits the snapshot already holds is safe.
+ **/
+
+void replay(RepoFileBase repo)
+{
+   record_count = 0;
+   replayFile(rotated_file,repo);
+   replayFile(journal_file,repo);
+}
+
+
+private void replayFile(File f,RepoFileBase repo)
+{
+   if (!f.exists()) return;
+
+   try (BufferedReader br = new BufferedReader(new InputStreamReader(
+         new FileInputStream(f),StandardCharsets.UTF_8))) {
+      for ( ; ; ) {
+         String ln = br.readLine();
+         if (ln == null) break;
+         if (ln.isBlank()) continue;
+         JSONObject rec = null;
+         try {
+            rec = new JSONObject(ln);
+          }
+         catch (JSONException e) {
+            // a crash can leave a partial last record
+            IvyLog.logE("REPO","Ignoring bad journal record in " + f + ": " + ln);
+            break;
+          }
+         int id = rec.getInt("id");
+         switch (rec.getString("op")) {
+            case "new" :
+               repo.applyNewRow(id);
+               break;
+            case "set" :
+               repo.applySetData(id,rec.getString("col"),rec.optString("val",null));
+               break;
+            case "remove" :
+               repo.applyRemoveRow(id);
+               break;
+          }
+         ++record_count;
+       }
+    }
+   catch (IOException e) {
+      IvyLog.logE("REPO","Problem reading journal " + f,e);
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Logging methods                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+void logNewRow(int id)
+{
+   addRecord(BurlUtil.buildJson("op","new","id",id));
+}
+
+
+void logSetData(int id,String col,String val)
+{
+   addRecord(BurlUtil.buildJson("op","set","id",id,"col",col,"val",val));
+}
+
+
+void logRemoveRow(int id)
+{
+   addRecord(BurlUtil.buildJson("op","remove","id",id));
+}
+
+
+/**
+ *      Append a record and push it to the file system so it survives a
+ *      crash of the server.  It is forced to disk shortly after by the
+ *      snapshot thread (see sync), outside the caller's store lock.
+ **/
+
+private synchronized void addRecord(JSONObject rec)
+{
+   try {
+      if (journal_writer == null) {
+         journal_stream = new FileOutputStream(journal_file,true);
+         journal_writer = new BufferedWriter(new OutputStreamWriter(
+               journal_stream,StandardCharsets.UTF_8));
+       }
+      journal_writer.write(rec.toString());
+      journal_writer.write("\n");
+      journal_writer.flush();
+      ++record_count;
+      if (!needs_sync) {
+         needs_sync = true;
+         RepoSnapshotThread.getThread().noteJournal(this);
+       }
+    }
+   catch (IOException e) {
+      IvyLog.logE("REPO","Problem writing journal " + journal_file,e);
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Compaction support                                                      */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Start a snapshot: later records go to a fresh journal.  If an
+ *      earlier snapshot never finished, the current records are left where
+ *      they are and are removed once this snapshot is written.
+ **/
+
+synchronized void startSnapshot()
+{
+   closeWriter();
+   if (!rotated_file.exists()) {
+      if (journal_file.exists() && !journal_file.renameTo(rotated_file)) {
+         IvyLog.logE("REPO","Problem rotating journal " + journal_file);
+       }
+    }
+   // records not yet synced are now in the rotated journal
+   if (needs_sync) rotated_sync = true;
+   needs_sync = false;
+   rotated_count += record_count;
+   record_count = 0;
+}
+
+
+/**
+ *      The snapshot covers everything in the rotated journal, so it can go.
+ **/
+
+synchronized void finishSnapshot()
+{
+   rotated_file.delete();
+   rotated_sync = false;
+   rotated_count = 0;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Durability                                                              */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Force the records written since the last sync to disk.  Called from
+ *      the snapshot thread; the lock is held only to pick up the state so
+ *      editors are not kept waiting on the disk.
+ **/
+
+void sync()
+{
+   FileOutputStream fos = null;
+   boolean rotated = false;
+   synchronized (this) {
+      if (needs_sync) fos = journal_stream;
+      rotated = rotated_sync;
+      needs_sync = false;
+      rotated_sync = false;
+    }
+
+   if (rotated) syncFile(rotated_file);
+   if (fos != null) {
+      try {
+         fos.getFD().sync();
+       }
+      catch (IOException e) {
+         // the writer was closed meanwhile, maybe by a rotation
+         syncFile(rotated_file);
+         syncFile(journal_file);
+       }
+    }
+}
+
+
+private void syncFile(File f)
+{
+   if (!f.exists()) return;
+   try (FileChannel fc = FileChannel.open(f.toPath(),StandardOpenOption.WRITE)) {
+      fc.force(true);
+    }
+   catch (IOException e) {
+      IvyLog.logE("REPO","Problem syncing journal " + f,e);
+    }
+}
+
+
+synchronized void close()
+{
+   closeWriter();
+   if (needs_sync) syncFile(journal_file);
+   needs_sync = false;
+}
+
+
+synchronized void delete()
+{
+   closeWriter();
+   journal_file.delete();
+   rotated_file.delete();
+   record_count = 0;
+   rotated_count = 0;
+}
+
+
+private void closeWriter()
+{
+   if (journal_writer == null) return;
+   try {
+      journal_writer.close();
+    }
+   catch (IOException e) {
+      IvyLog.logE("REPO","Problem closing journal " + journal_file,e);
+    }
+   journal_writer = null;
+   journal_stream = null;
+}
+
+
+
+}       // end of class RepoJournal
+
+
+
+
+/* end of RepoJournal.java */
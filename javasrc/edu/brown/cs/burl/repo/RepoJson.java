@@ -20,10 +20,7 @@ package edu.brown.cs.burl.repo;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -31,25 +28,12 @@ import org.json.JSONObject;
 import edu.brown.cs.burl.burl.BurlControl;
 import edu.brown.cs.burl.burl.BurlLibrary;
 import edu.brown.cs.burl.burl.BurlRepoColumn;
-import edu.brown.cs.burl.burl.BurlRepoRow;
-import edu.brown.cs.ivy.file.IvyFile;
 import edu.brown.cs.ivy.file.IvyLog;
 
-class RepoJson extends RepoBase
+class RepoJson extends RepoFileBase
 { 
 
 
-/********************************************************************************/
-/*                                                                              */
-/*      Private Storage                                                         */
-/*                                                                              */
-/********************************************************************************/
-
-private Map<Integer,BurlRepoRow> repo_data;
-private File                    repo_file;
-private int                     max_id; 
-
-
 /********************************************************************************/
 /*                                                                              */
 /*      Constructors                                                            */
@@ -58,11 +42,7 @@ private int                     max_id;
 
 RepoJson(BurlControl bc,BurlLibrary lib)
 {
-   super(bc,lib); 
-   repo_data = null;
-   File f1 = bc.getDataDirectory();
-   repo_file = new File(f1,lib.getNameKey() + ".json");
-   max_id = 0;
+   super(bc,lib,".json"); 
 }
 
 
@@ -73,73 +53,16 @@ RepoJson(BurlControl bc,BurlLibrary lib)
 /*                                                                              */
 /********************************************************************************/
 
-@Override public void openRepository()
-{
-   if (repo_data == null) {
-      repo_data = new TreeMap<>(); 
-      inputRepoFromFile();
-    }
-}
-
-
-@Override public void closeRepository()
-{
-   outputRepository();
-   repo_data = null;
-}
-
-
-@Override public void outputRepository()
-{
-   // might want to handle backups
-   exportRepository(repo_file,BurlExportFormat.CSV,null);
-}
-
-
-@Override public void deleteRepository()
+@Override protected BurlExportFormat getFileFormat()
 {
-   repo_file.delete();
-   repo_data = null;
+   return BurlExportFormat.JSON;
 }
 
 
-private void inputRepoFromFile()
+@Override protected void inputRepoFromFile(File repofile)
 {
-   if (repo_file == null) return;
-   if (!repo_file.exists()) return;
-   
    try {
-      String cnts = IvyFile.loadFile(repo_file);
-      JSONObject jo = new JSONObject(cnts);
-      JSONArray jarr = jo.optJSONArray("data");
-      if (jarr != null) {
-         for (int i = 0; i < jarr.length(); ++i) {
-            JSONObject datao = jarr.getJSONObject(i);
-            Number oldidx = datao.optNumber("burl_id");
-            int idx = 0;
-            if (oldidx != null) idx = oldidx.intValue();
-            else idx = ++max_id;
-            BurlRepoRow brr = newRow(idx);
-            for (String fldnm : JSONObject.getNames(datao)) {
-               BurlRepoColumn brc = getColumn(fldnm);
-               if (brc == null) continue;
-               Object v = jo.get(fldnm);
-               if (v == null) continue;
-               if (v instanceof JSONArray) {
-                  JSONArray vals = (JSONArray) v;
-                  List<String> elts = new ArrayList<>();
-                  for (int j = 0; j < vals.length(); ++j) {
-                     elts.add(vals.get(j).toString());
-                   }
-                  String vr = String.join(RepoBase.getMultiple(),elts); 
-                  brr.setData(brc,vr);
-                }
-               else {
-                  brr.setData(brc,v.toString());
-                }
-             }
-          }
-       }
+      RepoJsonStream.readRepository(repofile,this::loadJsonRow);
     }
    catch (IOException e) {
       IvyLog.logE("REPO","Problem reading JSON input file",e);
@@ -148,104 +71,37 @@ private void inputRepoFromFile()
 }
 
 
-
-/********************************************************************************/
-/*                                                                              */
-/*      Row methods                                                             */
-/*                                                                              */
-/********************************************************************************/
-
-@Override public BurlRepoRow newRow()
-{
-   return newRow(++max_id);
-}
-
-
-private BurlRepoRow newRow(int idx)
-{
-   JsonRow brr = new JsonRow(idx);
-   repo_data.put(idx,brr);
-   if (idx > max_id) max_id = idx;
-   
-   return brr;
-}
-
-
-@Override public BurlRowIter getRows(BurlRepoColumn sort,boolean invert)
+private void loadJsonRow(JSONObject datao)
 {
-   // might need to sort here
-   return new RowIter(repo_data.values());
-}
-
-
-@Override public BurlRepoRow getRowForId(Number id)
-{
-   if (id == null) return null;
-   
-   return repo_data.get(id);
-}
-
-
-@Override public void removeRow(Number id)
-{
-   if (id == null) return;
-   
-   repo_data.remove(id);
-}
-
-
-
-/********************************************************************************/
-/*                                                                              */
-/*      Json row                                                                */
-/*                                                                              */
-/********************************************************************************/
-
-private class JsonRow extends RepoRowBase {
-   
-   private Map<BurlRepoColumn,String> row_data; 
-   private int row_index;
-   
-   JsonRow(int idx) {
-      super(RepoJson.this);
-      row_data = new HashMap<>();
-      row_index = idx;
-    }
-   
-   @Override public String getData(BurlRepoColumn rc) {
-      return row_data.get(rc);
-    }
-   
-   
-   @Override public void setData(BurlRepoColumn rc,String v) {
-      v = rc.fixFieldValue(v);
-      
-      if (rc.isOriginalIsbnField()) {
-         // Might want to do this for all ISBN fields
-         String ov = row_data.get(rc);
-         updateIsbnField(ov,v);
-         updateIsbnLccnMap(ov,v,row_index);
+   Number oldidx = datao.optNumber("burl_id");
+   int id = (oldidx == null ? 0 : oldidx.intValue());
+
+   String [] names = JSONObject.getNames(datao);
+   if (names == null) names = new String[0];
+   BurlRepoColumn [] cols = new BurlRepoColumn[names.length];
+   String [] vals = new String[names.length];
+   for (int i = 0; i < names.length; ++i) {
+      cols[i] = getColumn(names[i]);
+      if (cols[i] == null) continue;
+      Object v = datao.opt(names[i]);
+      if (v == null || v == JSONObject.NULL) {
+         cols[i] = null;
+       }
+      else if (v instanceof JSONArray) {
+         JSONArray jvals = (JSONArray) v;
+         List<String> elts = new ArrayList<>();
+         for (int j = 0; j < jvals.length(); ++j) {
+            elts.add(jvals.get(j).toString());
+          }
+         vals[i] = String.join(RepoBase.getMultiple(),elts); 
        }
-      else if (rc.isLccnField()) {
-         String ov = row_data.get(rc);
-         updateIsbnLccnMap(ov,v,row_index); 
+      else {
+         vals[i] = v.toString();
        }
-      
-      if (v == null || v.isEmpty()) row_data.remove(rc);
-      else row_data.put(rc,v);
-      
-      RepoColumn upd = getUpdateColumn(rc);  
-      if (upd != null) setData(upd,v);
-   }
-   
-   @Override public Number getRowId() {
-      return row_index;
     }
-   
-}       // end of inner class CsvRow
-
-
 
+   loadRow(id,cols,vals);
+}
 
 
 
@@ -0,0 +1,128 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoJsonStream.java                                             */
+/*                                                                              */
+/*      Streaming reader and writer for JSON repository files                   */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import edu.brown.cs.burl.burl.BurlRepoRow;
+
+class RepoJsonStream implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Reading                                                                 */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Read a repository file of the form { ..., "data" : [ row, ... ], ... }
+ *      passing each row to the consumer as it is parsed.  Only one row is
+ *      held in memory at a time.
+ **/
+
+static void readRepository(File f,Consumer<JSONObject> rowfct) throws IOException
+{
+   try (Reader rdr = new BufferedReader(new InputStreamReader(
+         new FileInputStream(f),StandardCharsets.UTF_8))) {
+      JSONTokener tok = new JSONTokener(rdr);
+      if (tok.nextClean() != '{') throw tok.syntaxError("A JSONObject text must begin with '{'");
+      if (tok.nextClean() == '}') return;
+      tok.back();
+      for ( ; ; ) {
+         Object key = tok.nextValue();
+         if (!(key instanceof String)) throw tok.syntaxError("Expected a key");
+         if (tok.nextClean() != ':') throw tok.syntaxError("Expected a ':' after a key");
+         if (key.equals("data")) readRows(tok,rowfct);
+         else tok.nextValue();
+         char c = tok.nextClean();
+         if (c == '}') break;
+         else if (c != ',') throw tok.syntaxError("Expected a ',' or '}'");
+       }
+    }
+   catch (JSONException e) {
+      throw new IOException("Bad JSON repository file " + f,e);
+    }
+}
+
+
+private static void readRows(JSONTokener tok,Consumer<JSONObject> rowfct)
+{
+   if (tok.nextClean() != '[') throw tok.syntaxError("A JSONArray text must start with '['");
+   if (tok.nextClean() == ']') return;
+   tok.back();
+   for ( ; ; ) {
+      JSONObject row = new JSONObject(tok);
+      rowfct.accept(row);
+      char c = tok.nextClean();
+      if (c == ']') break;
+      else if (c != ',') throw tok.syntaxError("Expected a ',' or ']'");
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Writing                                                                 */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Write a repository file one row at a time.  Each row goes on its
+ *      own line.
+ **/
+
+static void writeRepository(RepoBase repo,Writer w,Iterable<BurlRepoRow> rows)
+        throws IOException
+{
+   w.write("{\n");
+   w.write("  \"name\": " + JSONObject.quote(repo.getName()) + ",\n");
+   w.write("  \"nameKey\": " + JSONObject.quote(repo.getNameKey()) + ",\n");
+   w.write("  \"data\": [");
+   boolean first = true;
+   for (BurlRepoRow brr : rows) {
+      JSONObject jo = repo.getJsonForRow(brr);
+      w.write(first ? "\n    " : ",\n    ");
+      jo.write(w);
+      first = false;
+    }
+   w.write("\n  ]\n}\n");
+}
+
+
+
+}       // end of class RepoJsonStream
+
+
+
+
+/* end of RepoJsonStream.java */
@@ -0,0 +1,121 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoPostings.java                                               */
+/*                                                                              */
+/*      Sorted list of row ids with reference counts for an index key           */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+class RepoPostings implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private int []          row_ids;
+private int []          ref_counts;             // # of columns holding the key
+private int             num_rows;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoPostings()
+{
+   row_ids = new int[4];
+   ref_counts = new int[4];
+   num_rows = 0;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+int size()                                      { return num_rows; }
+
+boolean isEmpty()                               { return num_rows == 0; }
+
+
+/**
+ *      Add the row ids to a result set
+ **/
+
+void addTo(BitSet rslt)
+{
+   for (int i = 0; i < num_rows; ++i) rslt.set(row_ids[i]);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Update methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+void add(int id)
+{
+   int idx = Arrays.binarySearch(row_ids,0,num_rows,id);
+   if (idx >= 0) {
+      ++ref_counts[idx];
+      return;
+    }
+
+   idx = -idx - 1;
+   if (num_rows >= row_ids.length) {
+      row_ids = Arrays.copyOf(row_ids,num_rows*2);
+      ref_counts = Arrays.copyOf(ref_counts,num_rows*2);
+    }
+   System.arraycopy(row_ids,idx,row_ids,idx+1,num_rows-idx);
+   System.arraycopy(ref_counts,idx,ref_counts,idx+1,num_rows-idx);
+   row_ids[idx] = id;
+   ref_counts[idx] = 1;
+   ++num_rows;
+}
+
+
+void remove(int id)
+{
+   int idx = Arrays.binarySearch(row_ids,0,num_rows,id);
+   if (idx < 0) return;
+   if (--ref_counts[idx] > 0) return;
+
+   System.arraycopy(row_ids,idx+1,row_ids,idx,num_rows-idx-1);
+   System.arraycopy(ref_counts,idx+1,ref_counts,idx,num_rows-idx-1);
+   --num_rows;
+}
+
+
+
+}       // end of class RepoPostings
+
+
+
+
+/* end of RepoPostings.java */
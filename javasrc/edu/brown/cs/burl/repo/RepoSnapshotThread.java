@@ -0,0 +1,261 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoSnapshotThread.java                                         */
+/*                                                                              */
+/*      Background thread that writes file repository snapshots                */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.brown.cs.ivy.file.IvyLog;
+
+class RepoSnapshotThread extends Thread implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private Map<RepoFileBase,FlushRequest> pending_flushes;
+private Set<RepoJournal> pending_syncs;
+private long sync_due;
+
+private static RepoSnapshotThread the_thread = null;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Static access                                                           */
+/*                                                                              */
+/********************************************************************************/
+
+static synchronized RepoSnapshotThread getThread()
+{
+   if (the_thread == null) {
+      the_thread = new RepoSnapshotThread();
+      the_thread.start();
+    }
+   return the_thread;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+private RepoSnapshotThread()
+{
+   super("Repository Snapshot Thread");
+   setDaemon(true);
+
+   pending_flushes = new HashMap<>();
+   pending_syncs = new HashSet<>();
+   sync_due = 0;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Request methods                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Note an edit.  The snapshot is written once the repository has been
+ *      quiet for its flush delay, or after its maximum delay if edits keep
+ *      coming.
+ **/
+
+synchronized void noteEdit(RepoFileBase repo)
+{
+   long now = System.currentTimeMillis();
+   FlushRequest req = pending_flushes.get(repo);
+   if (req == null) {
+      req = new FlushRequest(now);
+      pending_flushes.put(repo,req);
+      notifyAll();
+    }
+   req.noteEdit(now);
+}
+
+
+/**
+ *      Ask for a snapshot as soon as possible
+ **/
+
+synchronized void requestSnapshot(RepoFileBase repo)
+{
+   long now = System.currentTimeMillis();
+   FlushRequest req = pending_flushes.get(repo);
+   if (req == null) {
+      req = new FlushRequest(now);
+      pending_flushes.put(repo,req);
+    }
+   req.setImmediate();
+   notifyAll();
+}
+
+
+/**
+ *      Note a journal with records that are not yet on disk.  Journals
+ *      noted within JOURNAL_SYNC_DELAY of each other are synced together.
+ **/
+
+synchronized void noteJournal(RepoJournal journal)
+{
+   if (pending_syncs.isEmpty()) {
+      sync_due = System.currentTimeMillis() + JOURNAL_SYNC_DELAY;
+      notifyAll();
+    }
+   pending_syncs.add(journal);
+}
+
+
+/**
+ *      Drop any pending request, e.g. when the repository is saved directly
+ **/
+
+synchronized void cancelSnapshot(RepoFileBase repo)
+{
+   pending_flushes.remove(repo);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Run methods                                                             */
+/*                                                                              */
+/********************************************************************************/
+
+@Override public void run()
+{
+   for ( ; ; ) {
+      RepoFileBase repo = null;
+      try {
+         repo = getNextRepository();
+         if (repo == null) syncJournals();
+         else repo.outputRepository();
+       }
+      catch (InterruptedException e) { }
+      catch (Throwable t) {
+         IvyLog.logE("REPO","Problem saving repository " +
+               (repo == null ? null : repo.getNameKey()),t);
+       }
+    }
+}
+
+
+/**
+ *      Wait for the next repository to save.  Returns null when journals
+ *      are due to be synced instead.
+ **/
+
+private synchronized RepoFileBase getNextRepository() throws InterruptedException
+{
+   for ( ; ; ) {
+      long now = System.currentTimeMillis();
+      if (!pending_syncs.isEmpty() && sync_due <= now) return null;
+      RepoFileBase next = null;
+      long nextdue = 0;
+      for (Map.Entry<RepoFileBase,FlushRequest> ent : pending_flushes.entrySet()) {
+         long due = ent.getValue().getDueTime(ent.getKey());
+         if (next == null || due < nextdue) {
+            next = ent.getKey();
+            nextdue = due;
+          }
+       }
+      if (!pending_syncs.isEmpty() && (next == null || sync_due < nextdue)) {
+         wait(sync_due - now);
+       }
+      else if (next == null) {
+         wait();
+       }
+      else if (nextdue > now) {
+         wait(nextdue - now);
+       }
+      else {
+         pending_flushes.remove(next);
+         return next;
+       }
+    }
+}
+
+
+private void syncJournals()
+{
+   List<RepoJournal> journals = null;
+   synchronized (this) {
+      journals = new ArrayList<>(pending_syncs);
+      pending_syncs.clear();
+    }
+   for (RepoJournal rj : journals) {
+      rj.sync();
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Pending flush information                                               */
+/*                                                                              */
+/********************************************************************************/
+
+private static class FlushRequest {
+
+   private long first_edit;
+   private long last_edit;
+   private boolean is_immediate;
+
+   FlushRequest(long now) {
+      first_edit = now;
+      last_edit = now;
+      is_immediate = false;
+    }
+
+   void noteEdit(long now)                      { last_edit = now; }
+
+   void setImmediate()                          { is_immediate = true; }
+
+   long getDueTime(RepoFileBase repo) {
+      if (is_immediate) return 0;
+      return Math.min(last_edit + repo.getFlushDelay(),
+            first_edit + repo.getMaxFlushDelay());
+    }
+
+}       // end of inner class FlushRequest
+
+
+
+}       // end of class RepoSnapshotThread
+
+
+
+
+/* end of RepoSnapshotThread.java */
@@ -0,0 +1,140 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoSortIndex.java                                              */
+/*                                                                              */
+/*      Maintained sort order of the rows of a file repository for a column     */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+class RepoSortIndex implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private RepoColumn      for_column;
+private String []       sort_keys;              // by row ordinal
+private NavigableSet<Integer> sorted_rows;      // row ordinals
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoSortIndex(RepoColumn col)
+{
+   for_column = col;
+   sort_keys = new String[1024];
+   // skip list iterators stay valid while rows are being edited
+   sorted_rows = new ConcurrentSkipListSet<>(this::compareRows);
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+RepoColumn getColumn()                          { return for_column; }
+
+
+/**
+ *      Return row ordinals in sort order (nulls last, ties by ordinal)
+ **/
+
+Iterator<Integer> getOrdinals(boolean invert)
+{
+   if (invert) return sorted_rows.descendingIterator();
+   return sorted_rows.iterator();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Maintenance methods                                                     */
+/*                                                                              */
+/********************************************************************************/
+
+synchronized void setValue(int ord,String val)
+{
+   if (ord >= sort_keys.length) {
+      sort_keys = Arrays.copyOf(sort_keys,Math.max(ord+1,sort_keys.length*2));
+    }
+   sorted_rows.remove(ord);
+   sort_keys[ord] = for_column.getSortKey(val);
+   sorted_rows.add(ord);
+}
+
+
+synchronized void removeRow(int ord)
+{
+   sorted_rows.remove(ord);
+   if (ord < sort_keys.length) sort_keys[ord] = null;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Comparison methods                                                      */
+/*                                                                              */
+/********************************************************************************/
+
+private int compareRows(Integer o1,Integer o2)
+{
+   int i1 = o1;
+   int i2 = o2;
+   if (i1 == i2) return 0;
+
+   String [] keys = sort_keys;
+   String k1 = (i1 < keys.length ? keys[i1] : null);
+   String k2 = (i2 < keys.length ? keys[i2] : null);
+   int cmp = compareKeys(k1,k2);
+   if (cmp != 0) return cmp;
+
+   return Integer.compare(i1,i2);
+}
+
+
+static int compareKeys(String k1,String k2)
+{
+   if (k1 == null && k2 == null) return 0;
+   if (k1 == null) return 1;
+   if (k2 == null) return -1;
+   return k1.compareTo(k2);
+}
+
+
+
+}       // end of class RepoSortIndex
+
+
+
+
+/* end of RepoSortIndex.java */
@@ -0,0 +1,238 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoTextIndex.java                                              */
+/*                                                                              */
+/*      Inverted word index used for the "all" filter                           */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.json.JSONArray;
+
+import edu.brown.cs.burl.burl.BurlUtil;
+
+/**
+ *      Maps each folded word (whitespace separated, as the filter splits
+ *      its tokens) to the rows holding it in any column.  A filter token
+ *      matches a row if it is a substring of one of its words, so the words
+ *      are also indexed by their trigrams to find those containing a token.
+ *      The result is a candidate set; rows still have to be checked by the
+ *      filter since the tokens must all occur in the same column.
+ **/
+
+class RepoTextIndex implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private Map<String,RepoPostings> word_postings;
+private Map<String,Set<String>> gram_words;
+
+private static final int GRAM_SIZE = 3;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoTextIndex()
+{
+   word_postings = new HashMap<>();
+   gram_words = new HashMap<>();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Maintenance methods                                                     */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Update the index when a column of a row changes from oldv to newv
+ **/
+
+synchronized void update(int id,String oldv,String newv)
+{
+   if (oldv == newv) return;
+   if (oldv != null && oldv.equals(newv)) return;
+
+   Set<String> oldwds = getWords(oldv);
+   Set<String> newwds = getWords(newv);
+   for (String w : oldwds) {
+      if (newwds.contains(w)) continue;
+      RepoPostings p = word_postings.get(w);
+      if (p == null) continue;
+      p.remove(id);
+      if (p.isEmpty()) removeWord(w);
+    }
+   for (String w : newwds) {
+      if (oldwds.contains(w)) continue;
+      RepoPostings p = word_postings.get(w);
+      if (p == null) {
+         p = new RepoPostings();
+         word_postings.put(w,p);
+         addWord(w);
+       }
+      p.add(id);
+    }
+}
+
+
+private void addWord(String w)
+{
+   for (String g : getGrams(w)) {
+      gram_words.computeIfAbsent(g,(k) -> new HashSet<>()).add(w);
+    }
+}
+
+
+private void removeWord(String w)
+{
+   word_postings.remove(w);
+   for (String g : getGrams(w)) {
+      Set<String> wds = gram_words.get(g);
+      if (wds == null) continue;
+      wds.remove(w);
+      if (wds.isEmpty()) gram_words.remove(g);
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Query methods                                                           */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Return the rows that might match an "all" filter value: a string of
+ *      tokens that must all match, or an array of such strings any of
+ *      which may match.  Returns null if the value can't be handled.
+ **/
+
+synchronized BitSet findCandidates(Object match)
+{
+   if (match instanceof String) {
+      return findTokens((String) match);
+    }
+   else if (match instanceof JSONArray) {
+      JSONArray arr = (JSONArray) match;
+      BitSet rslt = new BitSet();
+      for (int i = 0; i < arr.length(); ++i) {
+         BitSet r1 = findTokens(arr.optString(i));
+         if (r1 == null) return null;
+         rslt.or(r1);
+       }
+      return rslt;
+    }
+
+   return null;
+}
+
+
+private BitSet findTokens(String key)
+{
+   if (key == null) return null;
+
+   BitSet rslt = null;
+   for (StringTokenizer tok = new StringTokenizer(BurlUtil.foldString(key)); tok.hasMoreTokens(); ) {
+      BitSet r1 = findToken(tok.nextToken());
+      if (rslt == null) rslt = r1;
+      else rslt.and(r1);
+      if (rslt.isEmpty()) break;
+    }
+
+   return rslt;
+}
+
+
+private BitSet findToken(String t)
+{
+   BitSet rslt = new BitSet();
+
+   Collection<String> cands = null;
+   if (t.length() < GRAM_SIZE) {
+      cands = word_postings.keySet();
+    }
+   else {
+      Set<String> best = null;
+      for (String g : getGrams(t)) {
+         Set<String> wds = gram_words.get(g);
+         if (wds == null) return rslt;
+         if (best == null || wds.size() < best.size()) best = wds;
+       }
+      cands = best;
+    }
+
+   for (String w : cands) {
+      if (w.contains(t)) word_postings.get(w).addTo(rslt);
+    }
+
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Helper methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+private static Set<String> getWords(String v)
+{
+   Set<String> rslt = new HashSet<>();
+   if (v == null || v.isEmpty()) return rslt;
+   for (StringTokenizer tok = new StringTokenizer(BurlUtil.foldString(v)); tok.hasMoreTokens(); ) {
+      rslt.add(tok.nextToken());
+    }
+   return rslt;
+}
+
+
+private static Set<String> getGrams(String w)
+{
+   Set<String> rslt = new HashSet<>();
+   for (int i = 0; i + GRAM_SIZE <= w.length(); ++i) {
+      rslt.add(w.substring(i,i+GRAM_SIZE));
+    }
+   return rslt;
+}
+
+
+
+}       // end of class RepoTextIndex
+
+
+
+
+/* end of RepoTextIndex.java */
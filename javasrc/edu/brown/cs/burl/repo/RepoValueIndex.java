@@ -0,0 +1,181 @@
+/********************************************************************************/
+/*                                                                              */
+/*              RepoValueIndex.java                                             */
+/*                                                                              */
+/*      Index of the distinct values of a column used for field filters         */
+/*                                                                              */
+/********************************************************************************/
+/*      Copyright 2025 Steven P. Reiss                                          */
+/*********************************************************************************
+ *                                                                               *
+ *  This work is licensed under Creative Commons Attribution-NonCommercial 4.0   *
+ *  International.  To view a copy of this license, visit                        *
+ *      https://creativecommons.org/licenses/by-nc/4.0/                          *
+ *                                                                               *
+ ********************************************************************************/
+
+
+package edu.brown.cs.burl.repo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.json.JSONArray;
+
+import edu.brown.cs.burl.burl.BurlRepoColumn;
+import edu.brown.cs.burl.burl.BurlUtil;
+
+/**
+ *      Maps each distinct folded value of a column to the rows holding
+ *      it.  Columns like Shelf or Status have few distinct values, so a
+ *      field filter (all tokens must be substrings of the value) is decided
+ *      by checking the values rather than the rows.
+ **/
+
+class RepoValueIndex implements RepoConstants
+{
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Private Storage                                                         */
+/*                                                                              */
+/********************************************************************************/
+
+private BurlRepoColumn  for_column;
+private Map<String,RepoPostings> value_postings;
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Constructors                                                            */
+/*                                                                              */
+/********************************************************************************/
+
+RepoValueIndex(BurlRepoColumn brc)
+{
+   for_column = brc;
+   value_postings = new HashMap<>();
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Access methods                                                          */
+/*                                                                              */
+/********************************************************************************/
+
+BurlRepoColumn getColumn()                      { return for_column; }
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Maintenance methods                                                     */
+/*                                                                              */
+/********************************************************************************/
+
+synchronized void update(int id,String oldv,String newv)
+{
+   String ok = getKey(oldv);
+   String nk = getKey(newv);
+   if (ok == null ? nk == null : ok.equals(nk)) return;
+
+   if (ok != null) {
+      RepoPostings p = value_postings.get(ok);
+      if (p != null) {
+         p.remove(id);
+         if (p.isEmpty()) value_postings.remove(ok);
+       }
+    }
+   if (nk != null) {
+      value_postings.computeIfAbsent(nk,(k) -> new RepoPostings()).add(id);
+    }
+}
+
+
+
+/********************************************************************************/
+/*                                                                              */
+/*      Query methods                                                           */
+/*                                                                              */
+/********************************************************************************/
+
+/**
+ *      Return exactly the rows whose value matches a field filter value:
+ *      a string of tokens or an array of such strings.  Returns null if the
+ *      value can't be handled.
+ **/
+
+synchronized BitSet findMatches(Object match)
+{
+   if (match instanceof String) {
+      return findTokens((String) match);
+    }
+   else if (match instanceof JSONArray) {
+      JSONArray arr = (JSONArray) match;
+      BitSet rslt = new BitSet();
+      for (int i = 0; i < arr.length(); ++i) {
+         BitSet r1 = findTokens(arr.optString(i));
+         if (r1 == null) return null;
+         rslt.or(r1);
+       }
+      return rslt;
+    }
+
+   return null;
+}
+
+
+private BitSet findTokens(String key)
+{
+   if (key == null) return null;
+
+   List<String> toks = new ArrayList<>();
+   for (StringTokenizer tok = new StringTokenizer(BurlUtil.foldString(key)); tok.hasMoreTokens(); ) {
+      toks.add(tok.nextToken());
+    }
+
+   BitSet rslt = new BitSet();
+   addMatches(value_postings,toks,rslt);
+
+   return rslt;
+}
+
+
+private void addMatches(Map<String,RepoPostings> vals,List<String> toks,BitSet rslt)
+{
+   for (Map.Entry<String,RepoPostings> ent : vals.entrySet()) {
+      String v = ent.getKey();
+      boolean fg = true;
+      for (String t : toks) {
+         if (!v.contains(t)) {
+            fg = false;
+            break;
+          }
+       }
+      if (fg) ent.getValue().addTo(rslt);
+    }
+}
+
+
+private static String getKey(String v)
+{
+   if (v == null || v.isEmpty()) return null;
+   return BurlUtil.foldString(v);
+}
+
+
+
+}       // end of class RepoValueIndex
+
+
+
+
+/* end of RepoValueIndex.java */